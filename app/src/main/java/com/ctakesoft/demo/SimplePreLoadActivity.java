@@ -17,12 +17,12 @@
 package com.ctakesoft.demo;
 
 import android.os.Bundle;
-import android.os.Handler;
 import android.support.v7.app.AppCompatActivity;
 import android.view.View;
 
 import com.ctakesoft.ctassistant.Assistant;
 import com.ctakesoft.ctassistant.ConnectionCallback;
+import com.ctakesoft.ctassistant.SessionReadyListener;
 
 /**
  * The simplest way to use Chrome Custom Tabs with speeding process.
@@ -40,16 +40,10 @@ public class SimplePreLoadActivity extends AppCompatActivity implements View.OnC
         final View button = findViewById(R.id.start_custom_tab);
         button.setOnClickListener(this);
         button.setEnabled(false);
-        mAssistant = new Assistant(this, new ConnectionCallback() {
+        // connects in onStart(), disconnects in onStop() and is destroyed with the activity.
+        mAssistant = Assistant.attach(this, new ConnectionCallback() {
             @Override
             public void onConnected() {
-                mAssistant.preLoad(mUrl = getResources().getString(R.string.default_test_url));
-                new Handler().postDelayed(new Runnable() {
-                    @Override
-                    public void run() {
-                        button.setEnabled(true);
-                    }
-                }, 2000); // Maybe, preload is finished.
             }
 
             @Override
@@ -58,26 +52,17 @@ public class SimplePreLoadActivity extends AppCompatActivity implements View.OnC
 
             @Override
             public void onFailed() {
+                // no Custom Tabs provider, launch() falls back to a WebView.
+                button.setEnabled(true);
+            }
+        });
+        mAssistant.preLoad(mUrl = getResources().getString(R.string.default_test_url));
+        mAssistant.whenSessionReady(new SessionReadyListener() {
+            @Override
+            public void onSessionReady() {
+                button.setEnabled(true);
             }
         });
-    }
-
-    @Override
-    protected void onStart() {
-        super.onStart();
-        mAssistant.connect();
-    }
-
-    @Override
-    protected void onStop() {
-        super.onStop();
-        mAssistant.disConnect();
-    }
-
-    @Override
-    protected void onDestroy() {
-        super.onDestroy();
-        mAssistant.destroy();
     }
 
     @Override
@@ -0,0 +1,72 @@
+package com.ctakesoft.ctassistant;
+
+import android.app.PendingIntent;
+import android.content.Intent;
+import android.os.Debug;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+/**
+ * Compares building an {@link AssistantIntent} per launch with stamping it out of a
+ * {@link AssistantIntent.Template}.
+ */
+public class AssistantIntentTemplateTest extends AndroidTestCase {
+    private static final String TAG = AssistantIntentTemplateTest.class.getSimpleName();
+    private static final int ITERATIONS = 500;
+
+    private AssistantIntent.Builder newStyledBuilder() {
+        PendingIntent pi = PendingIntent.getActivity(getContext(), 0, new Intent(), 0);
+        return new AssistantIntent.Builder(getContext(), null)
+                .setToolbarColor(0xff3f51b5)
+                .setShowTitle(true)
+                .setCloseButtonIconToArrowBack()
+                .setStartAnimationsRightToLeft()
+                .setExitAnimationsLeftToRight()
+                .addMenuItem("menu", pi)
+                .setActionButtonForShareUrl();
+    }
+
+    public void testTemplateAllocatesLessThanBuilder() throws Exception {
+        final AssistantIntent.Template template = newStyledBuilder().buildTemplate();
+        // warm up both paths.
+        newStyledBuilder().build();
+        template.newIntent(null);
+
+        Debug.startAllocCounting();
+        try {
+            Debug.resetThreadAllocCount();
+            long start = System.nanoTime();
+            for (int i = 0; i < ITERATIONS; i++) {
+                newStyledBuilder().build();
+            }
+            long builderNanos = System.nanoTime() - start;
+            int builderAllocs = Debug.getThreadAllocCount();
+
+            Debug.resetThreadAllocCount();
+            start = System.nanoTime();
+            for (int i = 0; i < ITERATIONS; i++) {
+                template.newIntent(null);
+            }
+            long templateNanos = System.nanoTime() - start;
+            int templateAllocs = Debug.getThreadAllocCount();
+
+            Log.i(TAG, "per launch: builder " + builderNanos / ITERATIONS + " ns, " + builderAllocs / ITERATIONS
+                    + " allocs; template " + templateNanos / ITERATIONS + " ns, " + templateAllocs / ITERATIONS
+                    + " allocs");
+            assertTrue("template allocates less", templateAllocs < builderAllocs);
+        } finally {
+            Debug.stopAllocCounting();
+        }
+    }
+
+    public void testTemplateIsNotChangedByLaterLaunches() throws Exception {
+        AssistantIntent.Template template = newStyledBuilder().buildTemplate();
+
+        AssistantIntent first = template.newIntent(null);
+        first.setPackage("com.android.chrome");
+        AssistantIntent second = template.newIntent(null);
+
+        assertNotSame(first, second);
+        assertNull(second.getIntent().getPackage());
+    }
+}
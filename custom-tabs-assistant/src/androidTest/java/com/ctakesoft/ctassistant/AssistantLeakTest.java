@@ -0,0 +1,127 @@
+package com.ctakesoft.ctassistant;
+
+import android.app.Activity;
+import android.app.Application;
+import android.content.Intent;
+import android.os.Bundle;
+import android.test.ActivityInstrumentationTestCase2;
+
+import java.lang.ref.WeakReference;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Checks that an attached {@link Assistant} does not keep its activity alive once destroyed.
+ */
+public class AssistantLeakTest extends ActivityInstrumentationTestCase2<AssistantWebViewActivity> {
+    private static final int GC_ATTEMPTS = 20;
+    private static final long DESTROY_TIMEOUT_SECONDS = 5;
+
+    public AssistantLeakTest() {
+        super(AssistantWebViewActivity.class);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        setActivityIntent(new Intent().putExtra(AssistantWebViewActivity.EXTRA_URL, "about:blank"));
+    }
+
+    private Assistant mAssistant;
+    private final CountDownLatch mDestroyed = new CountDownLatch(1);
+
+    public void testDestroyedActivityIsCollectable() throws Exception {
+        WeakReference<Activity> reference = attachAndFinish();
+        assertTrue("activity not destroyed", mDestroyed.await(DESTROY_TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        getInstrumentation().waitForIdleSync();
+
+        // the Assistant is still strongly reachable, the activity must not be.
+        assertNotNull(mAssistant);
+        for (int i = 0; i < GC_ATTEMPTS && reference.get() != null; i++) {
+            Runtime.getRuntime().gc();
+            Runtime.getRuntime().runFinalization();
+            Thread.sleep(100);
+        }
+        assertNull("destroyed activity leaked", reference.get());
+    }
+
+    /**
+     * Kept apart so that no local of the test method references the activity.
+     */
+    private WeakReference<Activity> attachAndFinish() {
+        final Activity activity = getActivity();
+        final WeakReference<Activity> reference = new WeakReference<>(activity);
+        getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                activity.getApplication().registerActivityLifecycleCallbacks(new DestroyWatcher(reference));
+                mAssistant = Assistant.attach(activity, new ConnectionCallback() {
+                    // references the activity, like the callbacks of real screens.
+                    final Activity mOwner = activity;
+
+                    @Override
+                    public void onConnected() {
+                    }
+
+                    @Override
+                    public void onDisconnected() {
+                    }
+
+                    @Override
+                    public void onFailed() {
+                    }
+                });
+                // the activity is started already, so the AutoConnector missed onStart(): bind
+                // now, so that the ConnectionPool holds the Assistant.
+                mAssistant.connect();
+                mAssistant.preLoad("https://www.example.com/");
+            }
+        });
+        activity.finish();
+        setActivity(null);
+        return reference;
+    }
+
+    /**
+     * Counts down {@link #mDestroyed} when the watched activity is destroyed, without holding it.
+     */
+    private class DestroyWatcher implements Application.ActivityLifecycleCallbacks {
+        private final WeakReference<Activity> mWatched;
+
+        DestroyWatcher(WeakReference<Activity> watched) {
+            mWatched = watched;
+        }
+
+        @Override
+        public void onActivityDestroyed(Activity activity) {
+            if (activity == mWatched.get()) {
+                activity.getApplication().unregisterActivityLifecycleCallbacks(this);
+                mDestroyed.countDown();
+            }
+        }
+
+        @Override
+        public void onActivityCreated(Activity activity, Bundle savedInstanceState) {
+        }
+
+        @Override
+        public void onActivityStarted(Activity activity) {
+        }
+
+        @Override
+        public void onActivityResumed(Activity activity) {
+        }
+
+        @Override
+        public void onActivityPaused(Activity activity) {
+        }
+
+        @Override
+        public void onActivityStopped(Activity activity) {
+        }
+
+        @Override
+        public void onActivitySaveInstanceState(Activity activity, Bundle outState) {
+        }
+    }
+}
@@ -17,85 +17,421 @@
 package com.ctakesoft.ctassistant;
 
 import android.app.Activity;
+import android.app.Application;
 import android.content.Context;
 import android.net.Uri;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.DrawableRes;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.support.customtabs.CustomTabsCallback;
 import android.support.customtabs.CustomTabsClient;
-import android.support.customtabs.CustomTabsServiceConnection;
+import android.support.customtabs.CustomTabsService;
 import android.support.customtabs.CustomTabsSession;
 import android.text.TextUtils;
 import android.util.Log;
 
 import org.chromium.customtabsclient.shared.CustomTabsHelper;
-import org.chromium.customtabsclient.shared.ServiceConnection;
 import org.chromium.customtabsclient.shared.ServiceConnectionCallback;
 
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
 /**
  * Chrome Custom Tabs Assistant main class
  */
-public final class Assistant implements ServiceConnectionCallback {
+public final class Assistant implements ServiceConnectionCallback, ConnectionPool.ReconnectListener {
     @SuppressWarnings("unused")
     private static final String TAG = Assistant.class.getSimpleName();
     @SuppressWarnings("unused")
     private final Assistant self = this;
 
+    /**
+     * Default number of lower priority urls sent by {@link #preLoad(List)}.
+     */
+    public static final int DEFAULT_MAX_OTHER_LIKELY_URLS = 4;
+
+    /**
+     * How long a {@link #launch} issued while connecting waits for the session.
+     */
+    private static final long PENDING_LAUNCH_TIMEOUT_MILLIS = 1000;
+
+    private static final PrefetchStats sPrefetchStats = new PrefetchStats();
+    private static final CustomTabFallback sFallback = new AssistantWebView();
+
+    private static class MayLaunchRequest {
+        final CustomTabsSession session;
+        final List<String> predictions;
+
+        MayLaunchRequest(CustomTabsSession session, List<String> predictions) {
+            this.session = session;
+            this.predictions = predictions;
+        }
+    }
+
     private static class NavigationCallback extends CustomTabsCallback {
+        private final NavigationMetrics mMetrics;
+
+        NavigationCallback(NavigationMetrics metrics) {
+            mMetrics = metrics;
+        }
+
         @Override
         public void onNavigationEvent(int navigationEvent, Bundle extras) {
-//            Log.i(TAG, "onNavigationEvent: Code = " + navigationEvent);
+            mMetrics.onNavigationEvent(navigationEvent);
         }
     }
 
-    private Context mContext;
+    /**
+     * Connects while the activity is started, and destroys the Assistant with it.
+     */
+    private static class AutoConnector implements Application.ActivityLifecycleCallbacks {
+        private final Application mApplication;
+        private final Assistant mAssistant;
+
+        AutoConnector(Application application, Assistant assistant) {
+            mApplication = application;
+            mAssistant = assistant;
+        }
+
+        void register() {
+            mApplication.registerActivityLifecycleCallbacks(this);
+        }
+
+        void unregister() {
+            mApplication.unregisterActivityLifecycleCallbacks(this);
+        }
+
+        private boolean isOwner(Activity activity) {
+            return activity == mAssistant.mActivity.get();
+        }
+
+        @Override
+        public void onActivityStarted(Activity activity) {
+            if (isOwner(activity)) {
+                mAssistant.connect();
+            }
+        }
+
+        @Override
+        public void onActivityStopped(Activity activity) {
+            if (isOwner(activity)) {
+                mAssistant.disConnect();
+            }
+        }
+
+        @Override
+        public void onActivityDestroyed(Activity activity) {
+            if (isOwner(activity)) {
+                mAssistant.destroy();
+            }
+        }
+
+        @Override
+        public void onActivityCreated(Activity activity, Bundle savedInstanceState) {
+        }
+
+        @Override
+        public void onActivityResumed(Activity activity) {
+        }
+
+        @Override
+        public void onActivityPaused(Activity activity) {
+        }
+
+        @Override
+        public void onActivitySaveInstanceState(Activity activity, Bundle outState) {
+        }
+    }
+
+    private final Context mAppContext;
+    private final WeakReference<Activity> mActivity;
+    private AutoConnector mAutoConnector;
     private ConnectionCallback mCallback;
 
     private CustomTabsSession mCustomTabsSession;
     private CustomTabsClient mClient;
-    private CustomTabsServiceConnection mConnection;
     private String mPackageNameToBind;
+    private boolean mBound;
+    private boolean mConnectRequested;
+    private int mMaxOtherLikelyUrls = DEFAULT_MAX_OTHER_LIKELY_URLS;
+    private List<String> mLastPredictions;
+    private boolean mAdaptivePrefetchEnabled = true;
+    private int[] mIconsToPreload = new int[0];
+
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final NavigationMetrics mNavigationMetrics = new NavigationMetrics(NavigationMetrics.DEFAULT_CAPACITY);
+    private final List<SessionReadyListener> mSessionReadyListeners = new ArrayList<>();
+    private List<String> mPendingPredictions;
+    private boolean mTouchPreloading;
+    private List<String> mPredictionsBeforeTouch;
+    // per session, the predictions waiting on the binder worker.
+    private final ConcurrentHashMap<CustomTabsSession, MayLaunchRequest> mPendingMayLaunch = new ConcurrentHashMap<>();
+    // keyed sessions besides the default one, see setMaxSessions().
+    private final SessionPool<CustomTabsSession> mSessionPool = new SessionPool<>(0);
+    private AssistantIntent mPendingLaunchIntent;
+    private Uri mPendingLaunchUri;
+    private final Runnable mConnectRunnable = new Runnable() {
+        @Override
+        public void run() {
+            connectNow();
+        }
+    };
+    private final Runnable mPendingLaunchTimeout = new Runnable() {
+        @Override
+        public void run() {
+            Log.w(TAG, "launch: session not ready in time, launching without it");
+            flushPendingLaunch();
+        }
+    };
 
     /**
      * constructor
      *
-     * @param context Activity to start the Chrome Custom Tabs
+     * @param context Activity to start the Chrome Custom Tabs, only weakly referenced.
      * @param callback It will be set if you want to be notified of the connection result.
      */
     public Assistant(@NonNull Activity context, @Nullable ConnectionCallback callback) {
-        mContext = context;
+        mAppContext = context.getApplicationContext();
+        mActivity = new WeakReference<>(context);
         mCallback = callback;
     }
 
+    /**
+     * Creates an Assistant that follows the activity lifecycle by itself: it connects in
+     * onStart(), disconnects in onStop() and is destroyed in onDestroy(), so no
+     * {@link #connect()}, {@link #disConnect()} or {@link #destroy()} call is needed.
+     * Call it from onCreate().
+     *
+     * @param activity Activity to start the Chrome Custom Tabs, only weakly referenced.
+     * @param callback It will be set if you want to be notified of the connection result.
+     * @return The attached Assistant.
+     */
+    public static Assistant attach(@NonNull Activity activity, @Nullable ConnectionCallback callback) {
+        Assistant assistant = new Assistant(activity, callback);
+        assistant.mAutoConnector = new AutoConnector(activity.getApplication(), assistant);
+        assistant.mAutoConnector.register();
+        return assistant;
+    }
+
     /**
      * Service connection request for preload
      */
     public void connect() {
-        if (!bindCustomTabsService()) {
-            if (mCallback != null) {
-                mCallback.onFailed();
-            }
-        }
+        mConnectRequested = true;
+        BitmapCache.preload(mAppContext, mIconsToPreload);
+        // right away, unless the StartupScheduler defers it past the cold start.
+        StartupScheduler.runWhenIdle(mConnectRunnable);
     }
 
     /**
      * Service disconnection request
      */
     public void disConnect() {
+        mConnectRequested = false;
+        clearPendingLaunch();
         unbindCustomTabsService();
     }
 
+    /**
+     * Drops the callback and listeners, which usually reference the activity.
+     */
     public void destroy() {
+        if (mAutoConnector != null) {
+            mAutoConnector.unregister();
+            mAutoConnector = null;
+        }
         mCallback = null;
+        mSessionReadyListeners.clear();
+        // left without launching what it predicted.
+        sPrefetchStats.onDiscarded(this);
+        mNavigationMetrics.setListener(null);
+    }
+
+    /**
+     * @return Whether the service is connected and a session is available.
+     */
+    public boolean isSessionReady() {
+        return mCustomTabsSession != null;
+    }
+
+    /**
+     * Calls the listener once the service is connected and a session is available,
+     * right away if it already is.
+     *
+     * @param listener Called on the main thread.
+     */
+    public void whenSessionReady(@NonNull SessionReadyListener listener) {
+        if (getSession() != null) {
+            listener.onSessionReady();
+        } else {
+            mSessionReadyListeners.add(listener);
+        }
     }
 
+    /**
+     * Tells the browser that the given url is likely to be launched.
+     *
+     * @param urlString url string
+     */
     public void preLoad(@NonNull String urlString) {
-        // pre load
-        CustomTabsSession session = getSession();
-        if (session == null || !session.mayLaunchUrl(Uri.parse(urlString), null, null)) {
-            Log.w(TAG, "createIntentBuilder: mayLaunchUrl failed");
+        preLoad(Collections.singletonList(urlString));
+    }
+
+    /**
+     * Tells the browser about the urls likely to be launched, with a single call.
+     * The first url is the most likely one, and the next {@link #setMaxOtherLikelyUrls(int)} urls
+     * are passed as lower priority candidates. Call it again as the ranking changes;
+     * an unchanged ranking is not sent twice. Until the session is ready, the latest ranking is
+     * kept and sent as soon as it is. Without a Custom Tabs provider, the first url is loaded
+     * off-screen for the WebView fallback if the {@link WebViewPool} is enabled, and the
+     * connections to the other origins are warmed up.
+     *
+     * @param rankedUrls url strings, most likely first.
+     */
+    public void preLoad(@NonNull List<String> rankedUrls) {
+        mTouchPreloading = false;
+        mPredictionsBeforeTouch = null;
+        sendPredictions(rankedUrls, false);
+    }
+
+    /**
+     * Sends the touched url, remembering the predictions to restore if the touch is cancelled.
+     * See {@link TouchPreloader}. Touches bypass the {@link PrefetchStats}: a scroll starting on
+     * a link is not a wasted prediction, and the launch settles the ranking. Without a Custom Tabs
+     * provider, the touched url is only preconnected: loading it off-screen would evict the page
+     * preloaded for the ranking.
+     */
+    void preLoadOnTouch(@NonNull List<String> urls) {
+        if (!mTouchPreloading) {
+            mTouchPreloading = true;
+            mPredictionsBeforeTouch = mPendingPredictions != null ? mPendingPredictions : mLastPredictions;
         }
+        sendPredictions(urls, true);
+    }
+
+    /**
+     * Sends again the predictions from before {@link #preLoadOnTouch}.
+     */
+    void cancelTouchPreload() {
+        if (!mTouchPreloading) {
+            return;
+        }
+        List<String> predictions = mPredictionsBeforeTouch;
+        mTouchPreloading = false;
+        mPredictionsBeforeTouch = null;
+        if (predictions != null) {
+            // still the outstanding ones in the stats.
+            sendPredictions(predictions, true);
+        }
+    }
+
+    /**
+     * Enables or disables the adaptive speculation budget. When enabled (the default),
+     * {@link #preLoad(List)} sends fewer urls, or none, as the share of preloaded urls that get
+     * launched drops, skips origins that are never launched, and sends a single url on metered
+     * networks. See {@link #getPrefetchStats()}.
+     */
+    public void setAdaptivePrefetchEnabled(boolean enabled) {
+        mAdaptivePrefetchEnabled = enabled;
+    }
+
+    /**
+     * @return The process-wide hit, miss and waste counters of preloading.
+     */
+    @NonNull
+    public static PrefetchStats getPrefetchStats() {
+        return sPrefetchStats;
+    }
+
+    /**
+     * Tells the browser about the urls likely to be launched from one surface of the app, in a
+     * session of its own. Rankings sent for other keys, and by {@link #preLoad(List)}, are kept
+     * instead of being replaced, and {@link #launch} uses the session whose ranking holds the
+     * url, or else the one keyed by its origin. The least recently used keyed session is
+     * dropped beyond {@link #setMaxSessions(int)}. The adaptive budget of
+     * {@link #setAdaptivePrefetchEnabled(boolean)} only applies to {@link #preLoad(List)}.
+     *
+     * @param sessionKey Identifies the surface, or null to use the origin of the most likely url.
+     * @param rankedUrls url strings, most likely first.
+     */
+    public void preLoad(@Nullable String sessionKey, @NonNull List<String> rankedUrls) {
+        if (rankedUrls.isEmpty()) {
+            return;
+        }
+        if (mSessionPool.getCapacity() == 0 || isFallbackOnly()) {
+            // no keyed sessions, or no Custom Tabs provider.
+            preLoad(rankedUrls);
+            return;
+        }
+        SessionPool.Slot<CustomTabsSession> slot = mSessionPool.obtain(
+                sessionKey != null ? sessionKey : PrefetchStats.origin(rankedUrls.get(0)));
+        List<String> predictions = new ArrayList<>(rankedUrls.subList(0,
+                Math.min(rankedUrls.size(), mMaxOtherLikelyUrls + 1)));
+        if (predictions.equals(slot.lastPredictions)) {
+            return;
+        }
+        if (slot.session == null) {
+            slot.pendingPredictions = predictions;
+            if (mClient != null && !slot.creating) {
+                createKeyedSession(mClient, slot);
+            }
+            return;
+        }
+        slot.lastPredictions = predictions;
+        sendMayLaunchUrl(slot.session, predictions);
+    }
+
+    /**
+     * Sets how many sessions may be open at once, counting the default one. With more than one,
+     * {@link #preLoad(String, List)} keeps a session per key.
+     *
+     * @param maxSessions 1 by default: all predictions share the default session.
+     */
+    public void setMaxSessions(int maxSessions) {
+        mSessionPool.setCapacity(maxSessions - 1);
+    }
+
+    /**
+     * Sets how many urls after the first are sent by {@link #preLoad(List)}.
+     *
+     * @param maxOtherLikelyUrls The number of lower priority urls,
+     *                           {@link #DEFAULT_MAX_OTHER_LIKELY_URLS} by default.
+     */
+    public void setMaxOtherLikelyUrls(int maxOtherLikelyUrls) {
+        mMaxOtherLikelyUrls = Math.max(0, maxOtherLikelyUrls);
+    }
+
+    /**
+     * Sets the listener notified of the latency of each launch.
+     *
+     * @param listener Called on the main thread, null to remove.
+     */
+    public void setNavigationMetricsListener(@Nullable NavigationMetrics.Listener listener) {
+        mNavigationMetrics.setListener(listener);
+    }
+
+    /**
+     * @return The latency of the recent launches made by this Assistant.
+     */
+    @NonNull
+    public NavigationMetrics getNavigationMetrics() {
+        return mNavigationMetrics;
+    }
+
+    /**
+     * Sets the icons decoded in the background by {@link #connect()}, so that
+     * {@link AssistantIntent.Builder} finds them ready. Icons are cached for the whole process.
+     *
+     * @param iconResIds The drawable IDs passed to the builder, e.g. {@link R.drawable#ic_arrow_back}.
+     */
+    public void setIconsToPreload(@DrawableRes int... iconResIds) {
+        mIconsToPreload = iconResIds.clone();
     }
 
     /**
@@ -104,66 +440,391 @@ public final class Assistant implements ServiceConnectionCallback {
      * @return {@link AssistantIntent.Builder}
      */
     public AssistantIntent.Builder createIntentBuilder() {
-        return new AssistantIntent.Builder(mContext, getSession());
+        Activity activity = mActivity.get();
+        // the activity theme provides the default toolbar color.
+        return new AssistantIntent.Builder(activity != null ? activity : mAppContext, getSession());
     }
 
     /**
      * Launch the Chrome Custom Tabs.
+     * If {@link #connect()} is still in progress, the launch waits briefly for the session so
+     * that the tab opens warm.
      *
      * @param assistantIntent The resulting AssistantIntent
      * @param urlString url string
      */
     public void launch(@NonNull AssistantIntent assistantIntent, @NonNull String urlString) {
-        openCustomTab((Activity) mContext, assistantIntent, Uri.parse(urlString), new AssistantWebView());
+        Uri uri = Uri.parse(urlString);
+        mTouchPreloading = false;
+        mPredictionsBeforeTouch = null;
+        mNavigationMetrics.onLaunch(urlString, isPredicted(urlString));
+        SessionPool.Slot<CustomTabsSession> slot = mSessionPool.findForUrl(urlString);
+        if (slot != null && slot.session != null) {
+            // warmed up by a keyed session, which the stats of the default session don't cover.
+            assistantIntent.setSession(slot.session);
+            launchNow(assistantIntent, uri);
+            return;
+        }
+        sPrefetchStats.onLaunched(this, urlString);
+        CustomTabsSession session = getSession();
+        if (session == null && mConnectRequested) {
+            clearPendingLaunch();
+            mPendingLaunchIntent = assistantIntent;
+            mPendingLaunchUri = uri;
+            mHandler.postDelayed(mPendingLaunchTimeout, PENDING_LAUNCH_TIMEOUT_MILLIS);
+            return;
+        }
+        if (session != null) {
+            assistantIntent.attachSession(session);
+        }
+        launchNow(assistantIntent, uri);
+    }
+
+    /**
+     * Launch the Chrome Custom Tabs from a template built once with
+     * {@link AssistantIntent.Builder#buildTemplate()}.
+     *
+     * @param template The prepared styling.
+     * @param urlString url string
+     */
+    public void launch(@NonNull AssistantIntent.Template template, @NonNull String urlString) {
+        launch(template.newIntent(getSession()), urlString);
     }
 
     /* ----- internals ----- */
 
-    private boolean bindCustomTabsService() {
-        if (mClient != null) {
-            return false;
+    /**
+     * @param touch Whether the predictions come from a touch, see {@link #preLoadOnTouch}.
+     */
+    private void sendPredictions(@NonNull List<String> rankedUrls, boolean touch) {
+        if (rankedUrls.isEmpty()) {
+            return;
         }
-        if (TextUtils.isEmpty(mPackageNameToBind)) {
-            mPackageNameToBind = CustomTabsHelper.getPackageNameToUse(mContext);
-            if (mPackageNameToBind == null) {
-                return false;
+        if (isFallbackOnly()) {
+            // no Custom Tabs provider, preload the WebView fallback instead.
+            preloadFallback(rankedUrls, touch);
+            return;
+        }
+        int maxUrls = mMaxOtherLikelyUrls + 1;
+        List<String> predictions;
+        if (mAdaptivePrefetchEnabled && !touch) {
+            predictions = sPrefetchStats.filter(rankedUrls, maxUrls, isActiveNetworkMetered());
+            if (predictions.isEmpty()) {
+                Log.d(TAG, "preLoad: skipped, speculation is not paying off");
+                return;
+            }
+        } else {
+            predictions = new ArrayList<>(rankedUrls.subList(0, Math.min(rankedUrls.size(), maxUrls)));
+        }
+        if (predictions.equals(mLastPredictions)) {
+            // already sent to this session.
+            return;
+        }
+
+        // pre load
+        CustomTabsSession session = getSession();
+        if (session == null) {
+            // replayed by onServiceConnected().
+            mPendingPredictions = predictions;
+            return;
+        }
+        mLastPredictions = predictions;
+        if (!touch) {
+            sPrefetchStats.onPredicted(this, predictions);
+        }
+        sendMayLaunchUrl(session, predictions);
+    }
+
+    private void connectNow() {
+        if (!mConnectRequested) {
+            // disconnected while deferred.
+            return;
+        }
+        if (ProviderProbe.isEnabled()) {
+            ProviderProbe.select(mAppContext, new ProviderProbe.Listener() {
+                @Override
+                public void onProviderSelected(String packageName) {
+                    if (mConnectRequested) {
+                        // the selected provider is CustomTabsHelper's preferred one, which it
+                        // still checks for Custom Tabs support.
+                        resolveAndBind();
+                    }
+                }
+            });
+            return;
+        }
+        resolveAndBind();
+    }
+
+    private void resolveAndBind() {
+        if (CustomTabsHelper.isPackageNameResolved()) {
+            // always re-read, the provider may have been invalidated since the last connect().
+            mPackageNameToBind = CustomTabsHelper.getPackageNameToUse(mAppContext);
+            bindOrFail();
+            return;
+        }
+        // resolve the provider off the main thread, then bind.
+        CustomTabsHelper.getPackageNameToUseAsync(mAppContext, new CustomTabsHelper.OnPackageNameResolvedListener() {
+            @Override
+            public void onPackageNameResolved(String packageName) {
+                if (mConnectRequested) {
+                    mPackageNameToBind = packageName;
+                    bindOrFail();
+                }
+            }
+        });
+    }
+
+    private void launchNow(@NonNull final AssistantIntent assistantIntent, @NonNull final Uri uri) {
+        final Activity activity = mActivity.get();
+        if (activity == null) {
+            Log.w(TAG, "launch: the activity is gone, " + uri);
+            return;
+        }
+        if (mClient != null && !TextUtils.isEmpty(mPackageNameToBind)) {
+            // connected: the bound provider is the one to launch, no discovery needed.
+            assistantIntent.setPackage(mPackageNameToBind);
+            assistantIntent.launchUrl(activity, uri);
+            return;
+        }
+        if (CustomTabsHelper.isPackageNameResolved()) {
+            openCustomTab(activity, assistantIntent, uri,
+                    CustomTabsHelper.getPackageNameToUse(mAppContext), sFallback);
+            return;
+        }
+        CustomTabsHelper.getPackageNameToUseAsync(mAppContext, new CustomTabsHelper.OnPackageNameResolvedListener() {
+            @Override
+            public void onPackageNameResolved(String packageName) {
+                if (!activity.isFinishing()) {
+                    openCustomTab(activity, assistantIntent, uri, packageName, sFallback);
+                }
+            }
+        });
+    }
+
+    private boolean isFallbackOnly() {
+        return !mConnectRequested && CustomTabsHelper.isPackageNameResolved()
+                && CustomTabsHelper.getPackageNameToUse(mAppContext) == null;
+    }
+
+    private boolean isActiveNetworkMetered() {
+        return NetworkMonitor.getInstance(mAppContext).isMetered();
+    }
+
+    private boolean isPredicted(String urlString) {
+        return (mLastPredictions != null && mLastPredictions.contains(urlString))
+                || (mPendingPredictions != null && mPendingPredictions.contains(urlString))
+                || mSessionPool.isPredicted(urlString);
+    }
+
+    private void flushPendingLaunch() {
+        AssistantIntent intent = mPendingLaunchIntent;
+        Uri uri = mPendingLaunchUri;
+        clearPendingLaunch();
+        if (intent == null) {
+            return;
+        }
+        CustomTabsSession session = getSession();
+        if (session != null) {
+            intent.attachSession(session);
+        }
+        launchNow(intent, uri);
+    }
+
+    private void clearPendingLaunch() {
+        mHandler.removeCallbacks(mPendingLaunchTimeout);
+        mPendingLaunchIntent = null;
+        mPendingLaunchUri = null;
+    }
+
+    /**
+     * Loads the most likely url off-screen, and warms up the connections to the origins of the
+     * others, for the WebView fallback. A touch only warms up the connection.
+     */
+    private void preloadFallback(List<String> rankedUrls, boolean touch) {
+        if (touch) {
+            Preconnector.getInstance().preconnect(rankedUrls.get(0));
+            return;
+        }
+        int count = Math.min(rankedUrls.size(), mMaxOtherLikelyUrls + 1);
+        // the off-screen page connects by itself.
+        int first = WebViewPool.prerender(rankedUrls.get(0)) ? 1 : 0;
+        for (int i = first; i < count; i++) {
+            Preconnector.getInstance().preconnect(rankedUrls.get(i));
+        }
+    }
+
+    private void bindOrFail() {
+        if (!bindCustomTabsService()) {
+            if (ProviderProbe.isEnabled() && !TextUtils.isEmpty(mPackageNameToBind)
+                    && ProviderProbe.reset(mPackageNameToBind)) {
+                // the measured provider can't be bound any more, fall back to the priority order.
+                resolveAndBind();
+                return;
+            }
+            // nothing to wait for.
+            mConnectRequested = false;
+            if (mPendingPredictions != null && TextUtils.isEmpty(mPackageNameToBind)) {
+                preloadFallback(mPendingPredictions, mTouchPreloading);
+            }
+            mPendingPredictions = null;
+            flushPendingLaunch();
+            if (mCallback != null) {
+                mCallback.onFailed();
             }
         }
-        mConnection = new ServiceConnection(this);
-        boolean ok = CustomTabsClient.bindCustomTabsService(mContext, mPackageNameToBind, mConnection);
-        if (!ok) {
-            mConnection = null;
+    }
+
+    private boolean bindCustomTabsService() {
+        if (mBound) {
+            return true;
         }
-        return ok;
+        if (TextUtils.isEmpty(mPackageNameToBind)) {
+            return false;
+        }
+        mBound = ConnectionPool.getInstance(mAppContext).acquire(mPackageNameToBind, this);
+        return mBound;
     }
 
     private void unbindCustomTabsService() {
-        if (mConnection == null) {
+        if (!mBound) {
             // not connected.
             return;
         }
-        mContext.unbindService(mConnection);
+        ConnectionPool.getInstance(mAppContext).release(this);
+        mBound = false;
         mClient = null;
         mCustomTabsSession = null;
+        mLastPredictions = null;
+        mSessionPool.clearSessions(false);
     }
 
-    private CustomTabsSession getSession() {
-        if (mClient == null) {
-            mCustomTabsSession = null;
-        } else if (mCustomTabsSession == null) {
-            mCustomTabsSession = mClient.newSession(new NavigationCallback());
+    /**
+     * Sends the predictions from the binder worker. While a request is waiting there, newer
+     * predictions replace it, so only the latest set is sent.
+     */
+    private void sendMayLaunchUrl(final CustomTabsSession session, List<String> predictions) {
+        if (mPendingMayLaunch.put(session, new MayLaunchRequest(session, predictions)) != null) {
+            // coalesced into the request already posted.
+            return;
         }
+        BinderWorker.post(new Runnable() {
+            @Override
+            public void run() {
+                final MayLaunchRequest request = mPendingMayLaunch.remove(session);
+                if (request == null || request.session.mayLaunchUrl(Uri.parse(request.predictions.get(0)), null,
+                        createOtherLikelyBundles(request.predictions.subList(1, request.predictions.size())))) {
+                    return;
+                }
+                Log.w(TAG, "preLoad: mayLaunchUrl failed");
+                BinderWorker.postToMain(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (mLastPredictions == request.predictions) {
+                            mLastPredictions = null;
+                        }
+                        mSessionPool.onPredictionsRejected(request.predictions);
+                    }
+                });
+            }
+        });
+    }
+
+    private static List<Bundle> createOtherLikelyBundles(List<String> urlStrings) {
+        if (urlStrings.isEmpty()) {
+            return null;
+        }
+        List<Bundle> bundles = new ArrayList<>(urlStrings.size());
+        for (String urlString : urlStrings) {
+            Bundle bundle = new Bundle();
+            bundle.putParcelable(CustomTabsService.KEY_URL, Uri.parse(urlString));
+            bundles.add(bundle);
+        }
+        return bundles;
+    }
+
+    /**
+     * @return The session, or null until {@link #onSessionCreated} has run.
+     */
+    private CustomTabsSession getSession() {
         return mCustomTabsSession;
     }
 
+    /**
+     * Creates the session on the binder worker.
+     */
+    private void createSession(final CustomTabsClient client) {
+        final NavigationCallback callback = new NavigationCallback(mNavigationMetrics);
+        BinderWorker.post(new Runnable() {
+            @Override
+            public void run() {
+                final CustomTabsSession session = client.newSession(callback);
+                BinderWorker.postToMain(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (mClient == client && mCustomTabsSession == null && session != null) {
+                            onSessionCreated(session);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Opens the session of a key, with a callback of its own, and sends its waiting predictions.
+     */
+    private void createKeyedSession(final CustomTabsClient client, final SessionPool.Slot<CustomTabsSession> slot) {
+        slot.creating = true;
+        final NavigationCallback callback = new NavigationCallback(mNavigationMetrics);
+        BinderWorker.post(new Runnable() {
+            @Override
+            public void run() {
+                final CustomTabsSession session = client.newSession(callback);
+                BinderWorker.postToMain(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (mClient != client || !mSessionPool.contains(slot) || !slot.creating) {
+                            // disconnected or evicted meanwhile.
+                            return;
+                        }
+                        slot.creating = false;
+                        slot.session = session;
+                        if (session != null && slot.pendingPredictions != null) {
+                            slot.lastPredictions = slot.pendingPredictions;
+                            slot.pendingPredictions = null;
+                            sendMayLaunchUrl(session, slot.lastPredictions);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    private void onSessionCreated(CustomTabsSession session) {
+        mCustomTabsSession = session;
+        if (mPendingPredictions != null) {
+            List<String> predictions = mPendingPredictions;
+            mPendingPredictions = null;
+            sendPredictions(predictions, mTouchPreloading);
+        }
+        flushPendingLaunch();
+        List<SessionReadyListener> listeners = new ArrayList<>(mSessionReadyListeners);
+        mSessionReadyListeners.clear();
+        for (SessionReadyListener listener : listeners) {
+            listener.onSessionReady();
+        }
+    }
+
     @Override
     public void onServiceConnected(CustomTabsClient client) {
         Log.d(TAG, "onServiceConnected() called with " + "client = [" + client + "]");
+        // warmup is done once per binding by the ConnectionPool.
         mClient = client;
-
         if (mClient != null) {
-            if (!mClient.warmup(0)) {
-                Log.w(TAG, "onServiceConnected: WarmUp failed");
+            createSession(mClient);
+            for (SessionPool.Slot<CustomTabsSession> slot : mSessionPool.getSlotsWaitingForSession()) {
+                createKeyedSession(mClient, slot);
             }
         }
 
@@ -176,25 +837,53 @@ public final class Assistant implements ServiceConnectionCallback {
     public void onServiceDisconnected() {
         Log.d(TAG, "onServiceDisconnected() called with " + "");
         mClient = null;
+        mCustomTabsSession = null;
+        if (mPendingPredictions == null) {
+            // replayed to the next session if the ConnectionPool rebinds.
+            mPendingPredictions = mLastPredictions;
+        }
+        mLastPredictions = null;
+        mSessionPool.clearSessions(true);
         if (mCallback != null) {
             mCallback.onDisconnected();
         }
     }
 
+    @Override
+    public void onReconnecting(int attempt, long delayMillis) {
+        Log.d(TAG, "onReconnecting() called with " + "attempt = [" + attempt + "], delayMillis = [" + delayMillis + "]");
+        if (mCallback instanceof ReconnectionCallback) {
+            ((ReconnectionCallback) mCallback).onReconnecting(attempt, delayMillis);
+        }
+    }
+
+    @Override
+    public void onReconnectFailed() {
+        Log.d(TAG, "onReconnectFailed() called with " + "");
+        // released by the ConnectionPool.
+        mBound = false;
+        mConnectRequested = false;
+        mPendingPredictions = null;
+        flushPendingLaunch();
+        if (mCallback instanceof ReconnectionCallback) {
+            ((ReconnectionCallback) mCallback).onReconnectFailed();
+        }
+    }
+
     /**
      * Opens the URL on a Custom Tab if possible. Otherwise fallsback to opening it on a WebView.
      *
      * @param activity        The host activity.
      * @param assistantIntent a CustomTabsIntent to be used if Custom Tabs is available.
      * @param uri             the Uri to be opened.
+     * @param packageName     the Custom Tabs provider, or null if there is none.
      * @param fallback        a CustomTabFallback to be used if Custom Tabs is not available.
      */
     static void openCustomTab(Activity activity,
                               AssistantIntent assistantIntent,
                               Uri uri,
+                              String packageName,
                               CustomTabFallback fallback) {
-        String packageName = CustomTabsHelper.getPackageNameToUse(activity);
-
         //If we cant find a package name, it means theres no browser that supports
         //Chrome Custom Tabs installed. So, we fallback to the webview
         if (packageName == null) {
@@ -21,15 +21,17 @@ import android.app.PendingIntent;
 import android.content.Context;
 import android.content.Intent;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.graphics.Color;
 import android.net.Uri;
+import android.os.Bundle;
 import android.support.annotation.AnimRes;
 import android.support.annotation.ColorInt;
 import android.support.annotation.DrawableRes;
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
 import android.support.customtabs.CustomTabsIntent;
 import android.support.customtabs.CustomTabsSession;
+import android.support.v4.app.ActivityCompat;
 import android.util.TypedValue;
 
 import org.chromium.customtabsclient.shared.CustomTabsHelper;
@@ -54,12 +56,14 @@ public final class AssistantIntent {
         private Context mContext;
         private CustomTabsIntent.Builder mBuilder;
 
+        private boolean mHasSession;
         private boolean mIsDefaultToolbarColor = true;
         private boolean mEnableUrlBarHiding = false;
 
         Builder(Context context, CustomTabsSession session) {
             mContext = context;
             mBuilder = new CustomTabsIntent.Builder(session);
+            mHasSession = session != null;
         }
 
         /**
@@ -87,7 +91,7 @@ public final class AssistantIntent {
          * @param iconRes The icon drawable ID {@link android.graphics.drawable.Drawable}
          */
         public Builder setCloseButtonIcon(@DrawableRes int iconRes) {
-            mBuilder.setCloseButtonIcon(BitmapFactory.decodeResource(mContext.getResources(), iconRes));
+            mBuilder.setCloseButtonIcon(BitmapCache.get(mContext.getResources(), iconRes));
             return this;
         }
 
@@ -95,7 +99,7 @@ public final class AssistantIntent {
          * Sets the Close button icon to ArrowBack icon.
          */
         public Builder setCloseButtonIconToArrowBack() {
-            mBuilder.setCloseButtonIcon(BitmapFactory.decodeResource(mContext.getResources(), R.drawable.ic_arrow_back));
+            mBuilder.setCloseButtonIcon(BitmapCache.get(mContext.getResources(), R.drawable.ic_arrow_back));
             return this;
         }
 
@@ -187,7 +191,7 @@ public final class AssistantIntent {
          */
         public Builder setActionButton(@DrawableRes int iconRes, @NonNull String description,
                                        @NonNull PendingIntent pendingIntent, boolean shouldTint) {
-            Bitmap icon = BitmapFactory.decodeResource(mContext.getResources(), iconRes);
+            Bitmap icon = BitmapCache.get(mContext.getResources(), iconRes);
             mBuilder.setActionButton(icon, description, pendingIntent, shouldTint);
             return this;
         }
@@ -222,6 +226,25 @@ public final class AssistantIntent {
          * object.
          */
         public AssistantIntent build() {
+            CustomTabsIntent customTabsIntent = buildCustomTabsIntent();
+            return new AssistantIntent(customTabsIntent.intent, customTabsIntent.startAnimationBundle, mHasSession);
+        }
+
+        /**
+         * Combines all the options that have been set into an immutable {@link Template}.
+         * Use it with {@link Assistant#launch(Template, String)} to launch the same styled tab many
+         * times without building it again; only the session and the url vary per launch.
+         */
+        public Template buildTemplate() {
+            CustomTabsIntent customTabsIntent = buildCustomTabsIntent();
+            // copied, the builder keeps mutating its own intent.
+            Intent intent = new Intent(customTabsIntent.intent);
+            // the session is attached per launch.
+            intent.putExtras(sessionExtras(null));
+            return new Template(intent, customTabsIntent.startAnimationBundle);
+        }
+
+        private CustomTabsIntent buildCustomTabsIntent() {
             if (mIsDefaultToolbarColor) {
                 TypedValue outValue = new TypedValue();
                 mContext.getTheme().resolveAttribute(R.attr.colorPrimary, outValue, true);
@@ -234,25 +257,99 @@ public final class AssistantIntent {
             CustomTabsIntent customTabsIntent = mBuilder.build();
             customTabsIntent.intent.putExtra(CustomTabsIntent.EXTRA_ENABLE_URLBAR_HIDING, mEnableUrlBarHiding);
             CustomTabsHelper.addKeepAliveExtra(mContext, customTabsIntent.intent);
-            return new AssistantIntent(customTabsIntent);
+            return customTabsIntent;
         }
 
     }
 
+    /**
+     * Immutable, pre-built Custom Tabs styling, see {@link Builder#buildTemplate()}.
+     * Must be used on the main thread.
+     */
+    public static final class Template {
+        private final Intent mIntent;
+        private final Bundle mStartAnimationBundle;
+
+        private CustomTabsSession mLastSession;
+        private Bundle mLastSessionExtras;
+
+        private Template(Intent intent, Bundle startAnimationBundle) {
+            mIntent = intent;
+            mStartAnimationBundle = startAnimationBundle;
+        }
+
+        /**
+         * Stamps out an intent by copying the template.
+         *
+         * @param session The session to bind to, or null.
+         */
+        AssistantIntent newIntent(@Nullable CustomTabsSession session) {
+            AssistantIntent assistantIntent = new AssistantIntent(new Intent(mIntent), mStartAnimationBundle, false);
+            if (session != null) {
+                if (session != mLastSession) {
+                    mLastSessionExtras = sessionExtras(session);
+                    mLastSession = session;
+                }
+                assistantIntent.putSessionExtras(mLastSessionExtras);
+            }
+            return assistantIntent;
+        }
+    }
+
     /* ----- internals ----- */
 
-    private CustomTabsIntent mCustomTabsIntent;
+    private final Intent mIntent;
+    private final Bundle mStartAnimationBundle;
+    private boolean mHasSession;
+
+    private AssistantIntent(Intent intent, Bundle startAnimationBundle, boolean hasSession) {
+        mIntent = intent;
+        mStartAnimationBundle = startAnimationBundle;
+        mHasSession = hasSession;
+    }
+
+    /**
+     * @return The extras binding an intent to the session, or to no session if it is null.
+     */
+    private static Bundle sessionExtras(@Nullable CustomTabsSession session) {
+        // a builder without options only carries the session extra.
+        return new CustomTabsIntent.Builder(session).build().intent.getExtras();
+    }
+
+    /**
+     * Binds the intent to the session if it was built before one was available.
+     */
+    void attachSession(@NonNull CustomTabsSession session) {
+        if (mHasSession) {
+            return;
+        }
+        putSessionExtras(sessionExtras(session));
+    }
+
+    /**
+     * Binds the intent to the session, replacing the one it was built with.
+     */
+    void setSession(@NonNull CustomTabsSession session) {
+        putSessionExtras(sessionExtras(session));
+    }
+
+    private void putSessionExtras(Bundle sessionExtras) {
+        mIntent.putExtras(sessionExtras);
+        mHasSession = true;
+    }
 
-    private AssistantIntent(CustomTabsIntent customTabsIntent) {
-        mCustomTabsIntent = customTabsIntent;
+    Intent getIntent() {
+        return mIntent;
     }
 
     void setPackage(String packageName) {
-        mCustomTabsIntent.intent.setPackage(packageName);
+        mIntent.setPackage(packageName);
     }
 
     void launchUrl(Activity context, Uri uri) {
-        mCustomTabsIntent.launchUrl(context, uri);
+        // same as CustomTabsIntent#launchUrl.
+        mIntent.setData(uri);
+        ActivityCompat.startActivity(context, mIntent, mStartAnimationBundle);
     }
 
 }
\ No newline at end of file
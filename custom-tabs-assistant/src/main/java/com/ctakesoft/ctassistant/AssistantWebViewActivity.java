@@ -19,9 +19,9 @@ package com.ctakesoft.ctassistant;
 import android.os.Bundle;
 import android.support.v7.app.AppCompatActivity;
 import android.view.MenuItem;
-import android.webkit.WebSettings;
+import android.view.ViewGroup;
+import android.view.ViewTreeObserver;
 import android.webkit.WebView;
-import android.webkit.WebViewClient;
 
 /**
  * This Activity is used as a fallback when there is no browser installed that supports
@@ -30,18 +30,70 @@ import android.webkit.WebViewClient;
 public class AssistantWebViewActivity extends AppCompatActivity {
     public static final String EXTRA_URL = "extra.url";
 
+    private static final String STATE_WEBVIEW = "state.webview";
+    private static final String STATE_SCROLL_X = "state.scroll_x";
+    private static final String STATE_SCROLL_Y = "state.scroll_y";
+
+    private WebView mWebView;
+    private boolean mPooled;
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
-        setContentView(R.layout.activity_webview);
         String url = getIntent().getStringExtra(EXTRA_URL);
-        WebView webView = (WebView)findViewById(R.id.webview);
-        webView.setWebViewClient(new WebViewClient());
-        WebSettings webSettings = webView.getSettings();
-        webSettings.setJavaScriptEnabled(true);
+        Bundle webViewState = savedInstanceState != null
+                ? savedInstanceState.getBundle(STATE_WEBVIEW) : null;
+        // a page preloaded off-screen, or else an idle pooled WebView.
+        // restoreState() needs a WebView that has not loaded anything yet, so skip both then.
+        boolean prerendered = webViewState == null
+                && (mWebView = WebViewPool.acquirePrerendered(this, url)) != null;
+        if (!prerendered && webViewState == null) {
+            mWebView = WebViewPool.acquire(this);
+        }
+        mPooled = mWebView != null;
+        if (mPooled) {
+            // same paddings as activity_webview.
+            int horizontal = getResources().getDimensionPixelSize(R.dimen.activity_horizontal_margin);
+            int vertical = getResources().getDimensionPixelSize(R.dimen.activity_vertical_margin);
+            mWebView.setPadding(horizontal, vertical, horizontal, vertical);
+            setContentView(mWebView);
+        } else {
+            setContentView(R.layout.activity_webview);
+            mWebView = (WebView)findViewById(R.id.webview);
+            WebViewPool.configure(mWebView);
+        }
         setTitle(url);
         getSupportActionBar().setDisplayHomeAsUpEnabled(true);
-        webView.loadUrl(url);
+        if (webViewState != null && mWebView.restoreState(webViewState) != null) {
+            restoreScroll(savedInstanceState.getInt(STATE_SCROLL_X),
+                    savedInstanceState.getInt(STATE_SCROLL_Y));
+        } else if (!prerendered) {
+            mWebView.loadUrl(url);
+        }
+    }
+
+    @Override
+    protected void onSaveInstanceState(Bundle outState) {
+        super.onSaveInstanceState(outState);
+        Bundle webViewState = new Bundle();
+        if (mWebView.saveState(webViewState) != null) {
+            outState.putBundle(STATE_WEBVIEW, webViewState);
+            outState.putInt(STATE_SCROLL_X, mWebView.getScrollX());
+            outState.putInt(STATE_SCROLL_Y, mWebView.getScrollY());
+        }
+    }
+
+    @Override
+    protected void onDestroy() {
+        if (mPooled) {
+            WebViewPool.release(mWebView);
+        } else {
+            // an inflated WebView keeps the activity alive until destroyed.
+            ((ViewGroup) mWebView.getParent()).removeView(mWebView);
+            mWebView.destroy();
+        }
+        mWebView = null;
+        super.onDestroy();
     }
 
     @Override
@@ -54,4 +106,28 @@ public class AssistantWebViewActivity extends AppCompatActivity {
         }
         return super.onOptionsItemSelected(item);
     }
+
+    /* ----- internals ----- */
+
+    /**
+     * WebView state no longer carries the scroll position, so scroll back once the restored page
+     * is tall enough (or has finished loading).
+     */
+    private void restoreScroll(final int x, final int y) {
+        if (x == 0 && y == 0) {
+            return;
+        }
+        final WebView webView = mWebView;
+        webView.getViewTreeObserver().addOnPreDrawListener(new ViewTreeObserver.OnPreDrawListener() {
+            @Override
+            public boolean onPreDraw() {
+                float contentHeight = webView.getContentHeight() * getResources().getDisplayMetrics().density;
+                if (contentHeight >= y + webView.getHeight() || webView.getProgress() == 100) {
+                    webView.getViewTreeObserver().removeOnPreDrawListener(this);
+                    webView.scrollTo(x, y);
+                }
+                return true;
+            }
+        });
+    }
 }
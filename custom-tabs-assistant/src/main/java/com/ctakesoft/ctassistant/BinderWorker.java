@@ -0,0 +1,79 @@
+/*
+ * Copyright 2015 ctakesoft.com<hal1000@ctakesoft.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ctakesoft.ctassistant;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
+
+/**
+ * Single background thread running every binder call to the CustomTabsService
+ * (warmup, newSession, mayLaunchUrl) in the order they were posted, so a busy browser process
+ * never blocks the main thread.
+ */
+final class BinderWorker {
+    @SuppressWarnings("unused")
+    private static final String TAG = BinderWorker.class.getSimpleName();
+
+    private static final Handler sMainHandler = new Handler(Looper.getMainLooper());
+    private static Handler sWorkerHandler;
+
+    private BinderWorker() {}
+
+    /**
+     * Runs the task on the worker thread, after all the tasks posted before it.
+     */
+    static void post(Runnable task) {
+        getWorkerHandler().post(task);
+    }
+
+    /**
+     * Runs the result handler on the main thread.
+     */
+    static void postToMain(Runnable task) {
+        sMainHandler.post(task);
+    }
+
+    /**
+     * Drops the worker thread, a new one is started by the next task. Only for JVM tests, which
+     * quit every looper between tests.
+     */
+    static synchronized void resetForTesting() {
+        if (sWorkerHandler != null) {
+            sWorkerHandler.getLooper().quit();
+            sWorkerHandler = null;
+        }
+    }
+
+    /**
+     * @return The worker thread's looper. Only for JVM tests, whose background loopers only run
+     * the tasks posted from another thread when the test asks them to.
+     */
+    static Looper getLooperForTesting() {
+        return getWorkerHandler().getLooper();
+    }
+
+    private static synchronized Handler getWorkerHandler() {
+        if (sWorkerHandler == null) {
+            HandlerThread thread = new HandlerThread(TAG, Process.THREAD_PRIORITY_BACKGROUND);
+            thread.start();
+            sWorkerHandler = new Handler(thread.getLooper());
+        }
+        return sWorkerHandler;
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright 2015 ctakesoft.com<hal1000@ctakesoft.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ctakesoft.ctassistant;
+
+import android.content.Context;
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.AsyncTask;
+import android.support.annotation.DrawableRes;
+import android.support.annotation.NonNull;
+import android.util.LruCache;
+
+/**
+ * Process-wide cache of the decoded toolbar icons used by {@link AssistantIntent.Builder}.
+ *
+ * Entries are keyed by resource id and screen density and evicted in LRU order once the cached
+ * bitmaps exceed {@link #MAX_SIZE_BYTES}. Safe to use from any thread.
+ */
+final class BitmapCache {
+    @SuppressWarnings("unused")
+    private static final String TAG = BitmapCache.class.getSimpleName();
+
+    static final int MAX_SIZE_BYTES = 1024 * 1024;
+
+    private static final LruCache<String, Bitmap> sCache = new LruCache<String, Bitmap>(
+            (int) Math.min(MAX_SIZE_BYTES, Runtime.getRuntime().maxMemory() / 64)) {
+        @Override
+        protected int sizeOf(String key, Bitmap value) {
+            return value.getByteCount();
+        }
+    };
+
+    private BitmapCache() {}
+
+    /**
+     * Returns the decoded icon, decoding it on the calling thread on a cache miss.
+     *
+     * @param resources Resources holding the drawable.
+     * @param iconRes The drawable resource ID.
+     * @return The bitmap, or null if it could not be decoded.
+     */
+    static Bitmap get(@NonNull Resources resources, @DrawableRes int iconRes) {
+        String key = key(resources, iconRes);
+        Bitmap bitmap = sCache.get(key);
+        if (bitmap == null) {
+            bitmap = BitmapFactory.decodeResource(resources, iconRes);
+            if (bitmap != null) {
+                sCache.put(key, bitmap);
+            }
+        }
+        return bitmap;
+    }
+
+    /**
+     * Decodes the icons on a background thread, so that later builders find them cached.
+     */
+    static void preload(@NonNull Context context, @NonNull final int... iconResIds) {
+        if (iconResIds.length == 0) {
+            return;
+        }
+        final Resources resources = context.getApplicationContext().getResources();
+        AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                for (int iconRes : iconResIds) {
+                    get(resources, iconRes);
+                }
+            }
+        });
+    }
+
+    private static String key(Resources resources, int iconRes) {
+        return iconRes + ":" + resources.getDisplayMetrics().densityDpi;
+    }
+}
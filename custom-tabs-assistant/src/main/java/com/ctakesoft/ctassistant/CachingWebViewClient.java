@@ -0,0 +1,153 @@
+/*
+ * Copyright 2015 ctakesoft.com<hal1000@ctakesoft.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ctakesoft.ctassistant;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.os.Build;
+import android.support.annotation.NonNull;
+import android.util.Log;
+import android.webkit.CookieManager;
+import android.webkit.WebResourceRequest;
+import android.webkit.WebResourceResponse;
+import android.webkit.WebView;
+import android.webkit.WebViewClient;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+
+/**
+ * WebViewClient of the {@link AssistantWebViewActivity} fallback, serving GET requests from an
+ * opt-in disk cache.
+ *
+ * Cached responses are returned immediately, with their stored headers, and revalidated in the
+ * background, so repeat visits load without waiting for the network and still work offline. On a miss the response is fetched
+ * with the WebView's request headers and cookies, stored if it is cacheable, and handed to the
+ * WebView with its real status and headers either way. API 21+ only: older releases cannot tell
+ * the request method, so there every request is left to the WebView.
+ */
+public class CachingWebViewClient extends WebViewClient {
+    @SuppressWarnings("unused")
+    private static final String TAG = CachingWebViewClient.class.getSimpleName();
+
+    private static final String CACHE_DIRECTORY = "ctassistant-web";
+    /**
+     * A cached response is not revalidated more often than this.
+     */
+    private static final long REVALIDATE_INTERVAL_MILLIS = 60 * 1000;
+
+    private static volatile DiskResponseCache sCache;
+
+    private static final DiskResponseCache.CookieJar sCookieJar = new DiskResponseCache.CookieJar() {
+        @Override
+        public String getCookie(String url) {
+            return CookieManager.getInstance().getCookie(url);
+        }
+
+        @Override
+        public void setCookie(String url, String value) {
+            CookieManager.getInstance().setCookie(url, value);
+        }
+    };
+
+    /**
+     * Enables the fallback response cache.
+     *
+     * @param context Any context, used to locate the cache directory.
+     * @param maxBytes Bound of the cached response bodies.
+     */
+    public static synchronized void enable(@NonNull Context context, long maxBytes) {
+        if (sCache == null) {
+            sCache = new DiskResponseCache(new File(context.getCacheDir(), CACHE_DIRECTORY), maxBytes);
+        }
+    }
+
+    /**
+     * Disables the fallback response cache. Stored responses are kept on disk.
+     */
+    public static synchronized void disable() {
+        sCache = null;
+    }
+
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    @Override
+    public WebResourceResponse shouldInterceptRequest(WebView view, WebResourceRequest request) {
+        DiskResponseCache cache = sCache;
+        String url = request.getUrl().toString();
+        if (cache == null || !"GET".equals(request.getMethod()) || !isHttp(url)) {
+            return null;
+        }
+        Map<String, String> requestHeaders = request.getRequestHeaders();
+        DiskResponseCache.Entry entry = cache.get(url);
+        if (entry != null) {
+            WebResourceResponse response = toResponse(entry);
+            if (response != null) {
+                cache.revalidateAsync(url, requestHeaders, sCookieJar, REVALIDATE_INTERVAL_MILLIS);
+                return response;
+            }
+        }
+        // called on a WebView worker thread, it may block.
+        DiskResponseCache.Response response;
+        try {
+            response = cache.fetch(url, requestHeaders, sCookieJar);
+        } catch (IOException e) {
+            Log.w(TAG, "shouldInterceptRequest: fetch failed " + url, e);
+            return null;
+        }
+        if (response.statusCode >= 300 && response.statusCode < 400) {
+            // a redirect across protocols, which a WebResourceResponse cannot carry.
+            closeQuietly(response.body);
+            return null;
+        }
+        return new WebResourceResponse(response.mimeType, response.encoding, response.statusCode,
+                reasonPhrase(response), response.headers, response.body);
+    }
+
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    private static WebResourceResponse toResponse(DiskResponseCache.Entry entry) {
+        try {
+            // with the headers, the CORS and CSP ones in particular.
+            return new WebResourceResponse(entry.mimeType, entry.encoding, 200, "OK", entry.headers, entry.open());
+        } catch (IOException e) {
+            // evicted meanwhile.
+            return null;
+        }
+    }
+
+    private static String reasonPhrase(DiskResponseCache.Response response) {
+        String reasonPhrase = response.reasonPhrase;
+        if (reasonPhrase == null || reasonPhrase.isEmpty() || !reasonPhrase.matches("\\p{ASCII}+")) {
+            // WebResourceResponse rejects an empty or non-ASCII reason phrase.
+            return "HTTP " + response.statusCode;
+        }
+        return reasonPhrase;
+    }
+
+    private static void closeQuietly(InputStream in) {
+        try {
+            in.close();
+        } catch (IOException e) {
+            // nothing to do.
+        }
+    }
+
+    private static boolean isHttp(String url) {
+        return url.startsWith("http://") || url.startsWith("https://");
+    }
+}
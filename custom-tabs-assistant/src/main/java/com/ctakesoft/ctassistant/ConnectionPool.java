@@ -0,0 +1,402 @@
+/*
+ * Copyright 2015 ctakesoft.com<hal1000@ctakesoft.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ctakesoft.ctassistant;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.NonNull;
+import android.support.customtabs.CustomTabsClient;
+import android.util.Log;
+
+import org.chromium.customtabsclient.shared.CustomTabsHelper;
+import org.chromium.customtabsclient.shared.ServiceConnection;
+import org.chromium.customtabsclient.shared.ServiceConnectionCallback;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Application-scoped connection to the CustomTabsService, shared by all {@link Assistant}s.
+ *
+ * The service is bound by the first {@link Assistant#connect()} and stays bound while any
+ * Assistant is connected. After the last {@link Assistant#disConnect()}, it is unbound only once
+ * the grace period has passed, so moving between activities does not pay bind and warmup again.
+ * If the browser process dies while the service is in use, it is rebound following the
+ * {@link ReconnectPolicy}. All methods must be called on the main thread.
+ */
+public final class ConnectionPool implements ServiceConnectionCallback {
+    @SuppressWarnings("unused")
+    private static final String TAG = ConnectionPool.class.getSimpleName();
+
+    /**
+     * Default delay between the last release and the actual unbind.
+     */
+    public static final long DEFAULT_GRACE_PERIOD_MILLIS = 5000;
+
+    /**
+     * Told about the automatic rebinding, in addition to the connection state.
+     */
+    interface ReconnectListener {
+        void onReconnecting(int attempt, long delayMillis);
+
+        void onReconnectFailed();
+    }
+
+    private static ConnectionPool sInstance;
+
+    private final Context mAppContext;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final List<ServiceConnectionCallback> mCallbacks = new ArrayList<>();
+    private final Runnable mUnbindRunnable = new Runnable() {
+        @Override
+        public void run() {
+            unbind();
+        }
+    };
+    private final Runnable mReconnectRunnable = new Runnable() {
+        @Override
+        public void run() {
+            reconnect();
+        }
+    };
+    private final Runnable mGiveUpRunnable = new Runnable() {
+        @Override
+        public void run() {
+            giveUp();
+        }
+    };
+
+    private long mGracePeriodMillis = DEFAULT_GRACE_PERIOD_MILLIS;
+    private ReconnectPolicy mReconnectPolicy = ReconnectPolicy.DEFAULT;
+    private int mReconnectAttempts;
+    private String mPackageName;
+    private ServiceConnection mConnection;
+    private CustomTabsClient mClient;
+    // the provider warmed up over the current binding. Once unbound, its process may be killed
+    // without us being told, so the next binding warms it up again.
+    private String mWarmedUpPackageName;
+    // warmed up by the ProviderProbe, whose binding keeps its process alive until ours connects.
+    private String mAdoptedPackageName;
+    private Runnable mAdoptedRelease;
+    private final Runnable mReleaseAdoptedRunnable = new Runnable() {
+        @Override
+        public void run() {
+            releaseAdopted();
+        }
+    };
+    private final ServiceConnectionCallback mPrewarmHolder = new ServiceConnectionCallback() {
+        @Override
+        public void onServiceConnected(CustomTabsClient client) {
+            // warmed up by onServiceConnected(), the grace period keeps the binding for a while.
+            release(this);
+        }
+
+        @Override
+        public void onServiceDisconnected() {
+        }
+    };
+
+    /**
+     * @param context Any context, only its application context is kept.
+     * @return The process-wide instance.
+     */
+    public static ConnectionPool getInstance(@NonNull Context context) {
+        if (sInstance == null) {
+            sInstance = new ConnectionPool(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    /**
+     * Unbinds and drops the process-wide instance. Only for JVM tests, where every test runs with
+     * a new Application.
+     */
+    static void resetForTesting() {
+        if (sInstance != null) {
+            sInstance.mCallbacks.clear();
+            sInstance.unbind();
+            sInstance.releaseAdopted();
+            sInstance = null;
+        }
+    }
+
+    private ConnectionPool(Context appContext) {
+        mAppContext = appContext;
+    }
+
+    /**
+     * Sets how long the service stays bound after the last Assistant disconnected.
+     *
+     * @param millis Grace period in milliseconds, 0 to unbind immediately.
+     */
+    public void setGracePeriod(long millis) {
+        mGracePeriodMillis = Math.max(0, millis);
+    }
+
+    /**
+     * Sets how the service is rebound after the browser process died while in use,
+     * {@link ReconnectPolicy#DEFAULT} by default.
+     */
+    public void setReconnectPolicy(@NonNull ReconnectPolicy policy) {
+        mReconnectPolicy = policy;
+    }
+
+    /**
+     * Adds a reference to the connection, binding the service if needed. If another provider is
+     * bound, its holders are told it disconnected and follow the switch to the new one.
+     *
+     * @param packageName The Custom Tabs provider to bind.
+     * @param callback Notified of the connection state until {@link #release} is called.
+     * @return false if the service could not be bound.
+     */
+    boolean acquire(@NonNull String packageName, @NonNull ServiceConnectionCallback callback) {
+        mHandler.removeCallbacks(mUnbindRunnable);
+        String previousPackageName = null;
+        if (mPackageName != null && !packageName.equals(mPackageName)) {
+            // the provider has changed since we bound, the current holders move to the new one.
+            previousPackageName = mPackageName;
+            boolean connected = mClient != null;
+            unbind();
+            if (connected) {
+                // drop the sessions of the old provider, they are re-created on the next connection.
+                for (ServiceConnectionCallback holder : new ArrayList<>(mCallbacks)) {
+                    holder.onServiceDisconnected();
+                }
+            }
+        }
+        if (mConnection == null) {
+            if (!bind(packageName)) {
+                if (previousPackageName != null && !mCallbacks.isEmpty()) {
+                    // keep the current holders on the provider they had.
+                    bind(previousPackageName);
+                }
+                return false;
+            }
+        }
+        if (!mCallbacks.contains(callback)) {
+            mCallbacks.add(callback);
+            if (mClient != null) {
+                callback.onServiceConnected(mClient);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Removes a reference added by {@link #acquire}. The service is unbound after the grace period
+     * once no reference is left, or right away if it is being rebound.
+     */
+    void release(@NonNull ServiceConnectionCallback callback) {
+        if (!mCallbacks.remove(callback) || !mCallbacks.isEmpty() || mPackageName == null) {
+            return;
+        }
+        if (mGracePeriodMillis == 0 || mReconnectAttempts > 0) {
+            // a dead provider has nothing warm to keep, and nobody waits for the rebind any more:
+            // cancel it rather than restart the browser process for nothing.
+            unbind();
+        } else {
+            mHandler.postDelayed(mUnbindRunnable, mGracePeriodMillis);
+        }
+    }
+
+    /**
+     * Binds and warms up the provider without any {@link Assistant}, unless it is bound and warm
+     * already. See {@link StartupScheduler#warmup(Context)}.
+     */
+    void prewarm() {
+        if (mWarmedUpPackageName != null) {
+            return;
+        }
+        CustomTabsHelper.getPackageNameToUseAsync(mAppContext, new CustomTabsHelper.OnPackageNameResolvedListener() {
+            @Override
+            public void onPackageNameResolved(String packageName) {
+                if (packageName != null && !packageName.equals(mWarmedUpPackageName)) {
+                    acquire(packageName, mPrewarmHolder);
+                }
+            }
+        });
+    }
+
+    /**
+     * Takes over a provider the {@link ProviderProbe} has bound and warmed up: the next binding to
+     * it skips the warmup. The probe's binding is released once ours is connected, or after the
+     * grace period if nobody binds the provider.
+     *
+     * @param release Unbinds the probe's binding.
+     */
+    void adoptWarmProvider(@NonNull String packageName, @NonNull Runnable release) {
+        releaseAdopted();
+        if (packageName.equals(mWarmedUpPackageName)) {
+            // warm over our own binding already.
+            release.run();
+            return;
+        }
+        mAdoptedPackageName = packageName;
+        mAdoptedRelease = release;
+        mHandler.postDelayed(mReleaseAdoptedRunnable, mGracePeriodMillis);
+    }
+
+    private void releaseAdopted() {
+        mHandler.removeCallbacks(mReleaseAdoptedRunnable);
+        Runnable release = mAdoptedRelease;
+        mAdoptedPackageName = null;
+        mAdoptedRelease = null;
+        if (release != null) {
+            release.run();
+        }
+    }
+
+    private boolean bind(String packageName) {
+        ServiceConnection connection = new ServiceConnection(this);
+        if (!CustomTabsClient.bindCustomTabsService(mAppContext, packageName, connection)) {
+            return false;
+        }
+        mConnection = connection;
+        mPackageName = packageName;
+        return true;
+    }
+
+    private void unbind() {
+        mHandler.removeCallbacks(mUnbindRunnable);
+        mHandler.removeCallbacks(mReconnectRunnable);
+        mHandler.removeCallbacks(mGiveUpRunnable);
+        mReconnectAttempts = 0;
+        if (mConnection != null) {
+            mAppContext.unbindService(mConnection);
+            mConnection = null;
+        }
+        mPackageName = null;
+        mClient = null;
+        mWarmedUpPackageName = null;
+    }
+
+    /**
+     * Schedules the next rebind while the service is still in use, or gives up.
+     */
+    private void scheduleReconnect() {
+        if (mPackageName == null || mCallbacks.isEmpty() || mReconnectPolicy.getMaxAttempts() == 0) {
+            // the system rebinds by itself if the service comes back.
+            return;
+        }
+        long delay = mReconnectPolicy.getDelay(mReconnectAttempts);
+        if (delay < 0) {
+            if (mConnection != null) {
+                // give the last bind as long as the previous ones to connect.
+                mHandler.postDelayed(mGiveUpRunnable, mReconnectPolicy.getDelay(mReconnectAttempts - 1));
+            } else {
+                giveUp();
+            }
+            return;
+        }
+        mReconnectAttempts++;
+        mHandler.postDelayed(mReconnectRunnable, delay);
+        for (ServiceConnectionCallback callback : new ArrayList<>(mCallbacks)) {
+            if (callback instanceof ReconnectListener) {
+                ((ReconnectListener) callback).onReconnecting(mReconnectAttempts, delay);
+            }
+        }
+    }
+
+    private void giveUp() {
+        Log.w(TAG, "giveUp: no connection after " + mReconnectAttempts + " attempts");
+        List<ServiceConnectionCallback> callbacks = new ArrayList<>(mCallbacks);
+        mCallbacks.clear();
+        unbind();
+        for (ServiceConnectionCallback callback : callbacks) {
+            if (callback instanceof ReconnectListener) {
+                ((ReconnectListener) callback).onReconnectFailed();
+            }
+        }
+    }
+
+    /**
+     * Drops the dead binding and binds again. The next attempt is scheduled right away, and
+     * cancelled once the service is connected.
+     */
+    private void reconnect() {
+        if (mPackageName == null) {
+            return;
+        }
+        if (mConnection != null) {
+            mAppContext.unbindService(mConnection);
+            mConnection = null;
+        }
+        ServiceConnection connection = new ServiceConnection(this);
+        if (CustomTabsClient.bindCustomTabsService(mAppContext, mPackageName, connection)) {
+            mConnection = connection;
+        } else {
+            Log.w(TAG, "reconnect: bind failed, attempt " + mReconnectAttempts);
+        }
+        scheduleReconnect();
+    }
+
+    @Override
+    public void onServiceConnected(CustomTabsClient client) {
+        Log.d(TAG, "onServiceConnected() called with " + "client = [" + client + "]");
+        mClient = client;
+        mHandler.removeCallbacks(mReconnectRunnable);
+        mHandler.removeCallbacks(mGiveUpRunnable);
+        mReconnectAttempts = 0;
+
+        if (client != null && mPackageName.equals(mAdoptedPackageName)) {
+            // warmed up by the probe, and kept alive by its binding until now.
+            mWarmedUpPackageName = mPackageName;
+        } else if (client != null && !mPackageName.equals(mWarmedUpPackageName)) {
+            warmup(client);
+        }
+        releaseAdopted();
+
+        for (ServiceConnectionCallback callback : new ArrayList<>(mCallbacks)) {
+            callback.onServiceConnected(client);
+        }
+    }
+
+    private void warmup(final CustomTabsClient client) {
+        final String packageName = mPackageName;
+        mWarmedUpPackageName = packageName;
+        BinderWorker.post(new Runnable() {
+            @Override
+            public void run() {
+                if (client.warmup(0)) {
+                    return;
+                }
+                Log.w(TAG, "onServiceConnected: WarmUp failed");
+                BinderWorker.postToMain(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (packageName.equals(mWarmedUpPackageName)) {
+                            mWarmedUpPackageName = null;
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    @Override
+    public void onServiceDisconnected() {
+        Log.d(TAG, "onServiceDisconnected() called with " + "");
+        mClient = null;
+        // the browser process is gone, with its warm state.
+        mWarmedUpPackageName = null;
+        for (ServiceConnectionCallback callback : new ArrayList<>(mCallbacks)) {
+            callback.onServiceDisconnected();
+        }
+        scheduleReconnect();
+    }
+}
@@ -0,0 +1,586 @@
+/*
+ * Copyright 2015 ctakesoft.com<hal1000@ctakesoft.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ctakesoft.ctassistant;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Size-bounded disk LRU of HTTP GET responses, keyed by url, with their validators.
+ *
+ * Each entry is a body file and a properties file holding the url, content type, the ETag /
+ * Last-Modified validators and the response headers, which hits are served with. {@link #fetch} stores cacheable 200 responses and refreshes entries
+ * on 304. Responses that depend on the user or the request (private, setting cookies, or with a
+ * Vary header) are passed through without being stored. Only plain Java is used here so it can
+ * be tested on the JVM against a local server. Safe to use from any thread.
+ */
+final class DiskResponseCache {
+    private static final String BODY_SUFFIX = ".body";
+    private static final String META_SUFFIX = ".meta";
+    private static final String TMP_SUFFIX = ".tmp";
+    private static final String HEADER_PREFIX = "header.";
+    private static final int TIMEOUT_MILLIS = 15 * 1000;
+
+    /**
+     * Access to the cookies of the WebView, so that fetched requests carry them.
+     */
+    interface CookieJar {
+        String getCookie(String url);
+
+        void setCookie(String url, String value);
+    }
+
+    /**
+     * A cached response.
+     */
+    static final class Entry {
+        final String url;
+        final String mimeType;
+        final String encoding;
+        final String etag;
+        final String lastModified;
+        // without Set-Cookie, names are case insensitive.
+        final Map<String, String> headers;
+        final File body;
+        final long size;
+        final long validatedAt;
+
+        Entry(String url, String mimeType, String encoding, String etag, String lastModified,
+              Map<String, String> headers, File body, long size, long validatedAt) {
+            this.url = url;
+            this.mimeType = mimeType;
+            this.encoding = encoding;
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.headers = Collections.unmodifiableMap(headers);
+            this.body = body;
+            this.size = size;
+            this.validatedAt = validatedAt;
+        }
+
+        InputStream open() throws IOException {
+            return new FileInputStream(body);
+        }
+    }
+
+    /**
+     * A response of {@link #fetch}: the stored entry, or the network response when it is not stored.
+     */
+    static final class Response {
+        final int statusCode;
+        final String reasonPhrase;
+        final String mimeType;
+        final String encoding;
+        // without Set-Cookie, which is applied to the CookieJar already.
+        final Map<String, String> headers;
+        final InputStream body;
+        // null if the response was not stored.
+        final Entry entry;
+
+        Response(int statusCode, String reasonPhrase, String mimeType, String encoding,
+                 Map<String, String> headers, InputStream body, Entry entry) {
+            this.statusCode = statusCode;
+            this.reasonPhrase = reasonPhrase;
+            this.mimeType = mimeType;
+            this.encoding = encoding;
+            this.headers = headers;
+            this.body = body;
+            this.entry = entry;
+        }
+    }
+
+    /**
+     * Body of a streamed response, releasing the connection once closed.
+     */
+    private static final class ConnectionInputStream extends FilterInputStream {
+        private final HttpURLConnection mConnection;
+
+        ConnectionInputStream(InputStream in, HttpURLConnection connection) {
+            super(in);
+            mConnection = connection;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                mConnection.disconnect();
+            }
+        }
+    }
+
+    private final File mDirectory;
+    private final long mMaxBytes;
+    // access ordered: least recently used first.
+    private final LinkedHashMap<String, Entry> mEntries = new LinkedHashMap<>(16, 0.75f, true);
+    private final Set<String> mRevalidating = new HashSet<>();
+    private final ExecutorService mExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, DiskResponseCache.class.getSimpleName());
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+    private long mSize;
+
+    /**
+     * @param directory Directory owned by the cache.
+     * @param maxBytes Bound of the total body size.
+     */
+    DiskResponseCache(File directory, long maxBytes) {
+        mDirectory = directory;
+        mMaxBytes = maxBytes;
+        if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+            return;
+        }
+        load();
+    }
+
+    /**
+     * @return The cached response, or null.
+     */
+    synchronized Entry get(String url) {
+        Entry entry = mEntries.get(url);
+        if (entry != null && !entry.body.exists()) {
+            remove(url);
+            return null;
+        }
+        return entry;
+    }
+
+    /**
+     * @return The total size of the cached bodies.
+     */
+    synchronized long size() {
+        return mSize;
+    }
+
+    /**
+     * Requests the url, conditionally if it is cached, and updates the cache. The caller must close
+     * the body of the response.
+     *
+     * @param url http or https url.
+     * @param requestHeaders Headers of the original request, such as User-Agent, may be null.
+     * @param cookieJar Cookies to send and update, may be null.
+     * @return The stored entry, or the network response if it is not cacheable.
+     * @throws IOException If the request failed.
+     */
+    Response fetch(String url, Map<String, String> requestHeaders, CookieJar cookieJar) throws IOException {
+        Entry cached = get(url);
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        boolean streaming = false;
+        try {
+            connection.setConnectTimeout(TIMEOUT_MILLIS);
+            connection.setReadTimeout(TIMEOUT_MILLIS);
+            connection.setUseCaches(false);
+            if (requestHeaders != null) {
+                for (Map.Entry<String, String> header : requestHeaders.entrySet()) {
+                    // the validators are the ones of the stored copy.
+                    if (!isConditional(header.getKey())) {
+                        connection.setRequestProperty(header.getKey(), header.getValue());
+                    }
+                }
+            }
+            if (cookieJar != null) {
+                String cookie = cookieJar.getCookie(url);
+                if (cookie != null) {
+                    connection.setRequestProperty("Cookie", cookie);
+                }
+            }
+            if (cached != null && cached.etag != null) {
+                connection.setRequestProperty("If-None-Match", cached.etag);
+            }
+            if (cached != null && cached.lastModified != null) {
+                connection.setRequestProperty("If-Modified-Since", cached.lastModified);
+            }
+
+            int code = connection.getResponseCode();
+            Map<String, String> headers = newHeaderMap();
+            boolean setsCookie = false;
+            for (Map.Entry<String, List<String>> header : connection.getHeaderFields().entrySet()) {
+                if (header.getKey() == null) {
+                    // the status line.
+                    continue;
+                }
+                if ("Set-Cookie".equalsIgnoreCase(header.getKey())) {
+                    setsCookie = true;
+                    if (cookieJar != null) {
+                        for (String cookie : header.getValue()) {
+                            cookieJar.setCookie(url, cookie);
+                        }
+                    }
+                    continue;
+                }
+                headers.put(header.getKey(), join(header.getValue()));
+            }
+            String reasonPhrase = connection.getResponseMessage();
+            if (code == HttpURLConnection.HTTP_NOT_MODIFIED && cached != null) {
+                // the 304 updates the stored headers, except those describing its own empty body.
+                Map<String, String> merged = newHeaderMap();
+                merged.putAll(cached.headers);
+                headers.remove("Content-Length");
+                headers.remove("Transfer-Encoding");
+                merged.putAll(headers);
+                Entry entry = put(url, cached.mimeType, cached.encoding, cached.etag, cached.lastModified, merged,
+                        null, cached.size);
+                return new Response(HttpURLConnection.HTTP_OK, "OK", entry.mimeType, entry.encoding, entry.headers,
+                        entry.open(), entry);
+            }
+
+            String[] contentType = parseContentType(connection.getContentType());
+            InputStream in = code >= HttpURLConnection.HTTP_BAD_REQUEST
+                    ? connection.getErrorStream() : connection.getInputStream();
+            if (in == null) {
+                in = new ByteArrayInputStream(new byte[0]);
+            }
+            if (code != HttpURLConnection.HTTP_OK || setsCookie || !isCacheable(connection)) {
+                if (code == HttpURLConnection.HTTP_OK) {
+                    // the stored copy is stale, or no longer shareable.
+                    synchronized (this) {
+                        remove(url);
+                    }
+                }
+                streaming = true;
+                return new Response(code, reasonPhrase, contentType[0], contentType[1], headers,
+                        new ConnectionInputStream(in, connection), null);
+            }
+            File tmp;
+            try {
+                tmp = writeTemp(key(url), in);
+            } finally {
+                in.close();
+            }
+            if (tmp.length() > mMaxBytes) {
+                // too large to keep, serve it once. The open stream outlives the deleted file.
+                InputStream body = new FileInputStream(tmp);
+                tmp.delete();
+                return new Response(code, reasonPhrase, contentType[0], contentType[1], headers, body, null);
+            }
+            Entry entry = put(url, contentType[0], contentType[1], connection.getHeaderField("ETag"),
+                    connection.getHeaderField("Last-Modified"), headers, tmp, 0);
+            return new Response(code, reasonPhrase, entry.mimeType, entry.encoding, headers, entry.open(), entry);
+        } finally {
+            if (!streaming) {
+                connection.disconnect();
+            }
+        }
+    }
+
+    /**
+     * Runs {@link #fetch} in the background, unless the url was validated less than
+     * {@code minAgeMillis} ago or is being fetched already.
+     */
+    void revalidateAsync(final String url, final Map<String, String> requestHeaders, final CookieJar cookieJar,
+                         long minAgeMillis) {
+        synchronized (this) {
+            Entry entry = mEntries.get(url);
+            if (entry != null && System.currentTimeMillis() - entry.validatedAt < minAgeMillis) {
+                return;
+            }
+            if (!mRevalidating.add(url)) {
+                return;
+            }
+        }
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    fetch(url, requestHeaders, cookieJar).body.close();
+                } catch (IOException e) {
+                    // offline, keep serving the cached copy.
+                } finally {
+                    synchronized (DiskResponseCache.this) {
+                        mRevalidating.remove(url);
+                    }
+                }
+            }
+        });
+    }
+
+    /* ----- internals ----- */
+
+    /**
+     * Stores the response. A null body keeps the current body file, of the given size, and only
+     * refreshes the entry.
+     *
+     * @param body Temporary file holding the new body, moved into the cache.
+     */
+    private Entry put(String url, String mimeType, String encoding, String etag, String lastModified,
+                      Map<String, String> headers, File body, long size) throws IOException {
+        String key = key(url);
+        File bodyFile = new File(mDirectory, key + BODY_SUFFIX);
+        if (body != null) {
+            size = body.length();
+            // replaces the body atomically, readers of the old file keep their stream.
+            rename(body, bodyFile);
+        }
+
+        Entry entry = new Entry(url, mimeType, encoding, etag, lastModified, headers, bodyFile, size,
+                System.currentTimeMillis());
+        writeMeta(key, entry);
+        synchronized (this) {
+            Entry old = mEntries.put(url, entry);
+            if (old != null) {
+                mSize -= old.size;
+            }
+            mSize += entry.size;
+            trimToSize();
+        }
+        return entry;
+    }
+
+    /**
+     * Copies the stream to a new temporary file. Each write gets its own file, so concurrent
+     * fetches of the same url do not interleave.
+     */
+    private File writeTemp(String key, InputStream in) throws IOException {
+        File tmp = File.createTempFile(key, TMP_SUFFIX, mDirectory);
+        OutputStream out = new FileOutputStream(tmp);
+        boolean written = false;
+        try {
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            written = true;
+        } finally {
+            out.close();
+            if (!written) {
+                tmp.delete();
+            }
+        }
+        return tmp;
+    }
+
+    private static void rename(File from, File to) throws IOException {
+        if (!from.renameTo(to)) {
+            from.delete();
+            throw new IOException("cannot store " + to);
+        }
+    }
+
+    private void trimToSize() {
+        Iterator<Map.Entry<String, Entry>> iterator = mEntries.entrySet().iterator();
+        while (mSize > mMaxBytes && iterator.hasNext()) {
+            Entry eldest = iterator.next().getValue();
+            iterator.remove();
+            mSize -= eldest.size;
+            deleteFiles(eldest.url);
+        }
+    }
+
+    private void remove(String url) {
+        Entry entry = mEntries.remove(url);
+        if (entry != null) {
+            mSize -= entry.size;
+            deleteFiles(url);
+        }
+    }
+
+    private void deleteFiles(String url) {
+        String key = key(url);
+        new File(mDirectory, key + BODY_SUFFIX).delete();
+        new File(mDirectory, key + META_SUFFIX).delete();
+    }
+
+    private void load() {
+        File[] metaFiles = mDirectory.listFiles();
+        if (metaFiles == null) {
+            return;
+        }
+        List<File> files = new ArrayList<>(Arrays.asList(metaFiles));
+        // restore the LRU order from the last validation time.
+        Collections.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File lhs, File rhs) {
+                return lhs.lastModified() < rhs.lastModified() ? -1
+                        : (lhs.lastModified() == rhs.lastModified() ? 0 : 1);
+            }
+        });
+        synchronized (this) {
+            for (File file : files) {
+                if (file.getName().endsWith(TMP_SUFFIX)) {
+                    file.delete();
+                    continue;
+                }
+                if (!file.getName().endsWith(META_SUFFIX)) {
+                    continue;
+                }
+                Entry entry = readMeta(file);
+                if (entry == null || !entry.body.exists()) {
+                    file.delete();
+                    continue;
+                }
+                mEntries.put(entry.url, entry);
+                mSize += entry.size;
+            }
+            trimToSize();
+        }
+    }
+
+    private void writeMeta(String key, Entry entry) throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty("url", entry.url);
+        setIfNotNull(properties, "mimeType", entry.mimeType);
+        setIfNotNull(properties, "encoding", entry.encoding);
+        setIfNotNull(properties, "etag", entry.etag);
+        setIfNotNull(properties, "lastModified", entry.lastModified);
+        properties.setProperty("validatedAt", Long.toString(entry.validatedAt));
+        for (Map.Entry<String, String> header : entry.headers.entrySet()) {
+            properties.setProperty(HEADER_PREFIX + header.getKey(), header.getValue());
+        }
+        File tmp = File.createTempFile(key, TMP_SUFFIX, mDirectory);
+        OutputStream out = new FileOutputStream(tmp);
+        try {
+            properties.store(out, null);
+        } finally {
+            out.close();
+        }
+        rename(tmp, new File(mDirectory, key + META_SUFFIX));
+    }
+
+    private Entry readMeta(File file) {
+        Properties properties = new Properties();
+        try {
+            InputStream in = new FileInputStream(file);
+            try {
+                properties.load(in);
+            } finally {
+                in.close();
+            }
+            String url = properties.getProperty("url");
+            if (url == null) {
+                return null;
+            }
+            Map<String, String> headers = newHeaderMap();
+            for (String name : properties.stringPropertyNames()) {
+                if (name.startsWith(HEADER_PREFIX)) {
+                    headers.put(name.substring(HEADER_PREFIX.length()), properties.getProperty(name));
+                }
+            }
+            File body = new File(mDirectory, key(url) + BODY_SUFFIX);
+            return new Entry(url, properties.getProperty("mimeType"), properties.getProperty("encoding"),
+                    properties.getProperty("etag"), properties.getProperty("lastModified"), headers, body,
+                    body.length(), Long.parseLong(properties.getProperty("validatedAt", "0")));
+        } catch (IOException | NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static void setIfNotNull(Properties properties, String key, String value) {
+        if (value != null) {
+            properties.setProperty(key, value);
+        }
+    }
+
+    /**
+     * @return Whether the response may be stored by url and served to any later request.
+     */
+    private static boolean isCacheable(HttpURLConnection connection) {
+        String cacheControl = connection.getHeaderField("Cache-Control");
+        if (cacheControl != null) {
+            cacheControl = cacheControl.toLowerCase(Locale.US);
+            if (cacheControl.contains("no-store") || cacheControl.contains("private")) {
+                return false;
+            }
+        }
+        // the variant depends on request headers the url does not capture.
+        return connection.getHeaderField("Vary") == null;
+    }
+
+    private static Map<String, String> newHeaderMap() {
+        return new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+    }
+
+    private static boolean isConditional(String header) {
+        return header.equalsIgnoreCase("If-None-Match") || header.equalsIgnoreCase("If-Modified-Since")
+                || header.equalsIgnoreCase("If-Match") || header.equalsIgnoreCase("If-Unmodified-Since")
+                || header.equalsIgnoreCase("If-Range");
+    }
+
+    private static String join(List<String> values) {
+        StringBuilder sb = new StringBuilder();
+        for (String value : values) {
+            if (sb.length() > 0) {
+                sb.append(", ");
+            }
+            sb.append(value);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @return The mime type and charset of a Content-Type header; either may be null.
+     */
+    static String[] parseContentType(String contentType) {
+        String[] result = new String[2];
+        if (contentType == null) {
+            return result;
+        }
+        String[] parts = contentType.split(";");
+        result[0] = parts[0].trim().toLowerCase(Locale.US);
+        for (int i = 1; i < parts.length; i++) {
+            String part = parts[i].trim();
+            if (part.toLowerCase(Locale.US).startsWith("charset=")) {
+                result[1] = part.substring("charset=".length()).replace("\"", "").trim();
+            }
+        }
+        return result;
+    }
+
+    private static String key(String url) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(url.getBytes("UTF-8"));
+            StringBuilder sb = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                sb.append(String.format(Locale.US, "%02x", b));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException | IOException e) {
+            throw new AssertionError(e);
+        }
+    }
+}
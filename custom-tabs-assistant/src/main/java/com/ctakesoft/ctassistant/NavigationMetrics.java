@@ -0,0 +1,236 @@
+/*
+ * Copyright 2015 ctakesoft.com<hal1000@ctakesoft.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ctakesoft.ctassistant;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.customtabs.CustomTabsCallback;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Measures the latency of each {@link Assistant#launch} from the navigation events the browser
+ * reports, and keeps the most recent results in a ring buffer.
+ *
+ * Navigation events arrive on a binder thread; they are timestamped on arrival and handled on
+ * the main thread. Only the first navigation of each launched tab is measured; the record is
+ * completed when the tab is hidden, or at the next launch if the browser never reports it.
+ */
+public final class NavigationMetrics {
+    @SuppressWarnings("unused")
+    private static final String TAG = NavigationMetrics.class.getSimpleName();
+
+    public static final int DEFAULT_CAPACITY = 32;
+
+    /**
+     * Notified of each completed {@link Record}, on the main thread.
+     */
+    public interface Listener {
+        void onNavigationRecorded(@NonNull Record record);
+    }
+
+    /**
+     * Timings of one launch. All times are {@link SystemClock#elapsedRealtime()} values,
+     * 0 if the event did not happen.
+     */
+    public static final class Record {
+        public static final int OUTCOME_FINISHED = 1;
+        public static final int OUTCOME_FAILED = 2;
+        public static final int OUTCOME_ABORTED = 3;
+        /** The tab was closed before the navigation ended. */
+        public static final int OUTCOME_HIDDEN = 4;
+
+        private final String mUrl;
+        private final boolean mPreloaded;
+        private final long mLaunchTime;
+        private long mStartedTime;
+        private long mEndTime;
+        private long mTabShownTime;
+        private long mTabHiddenTime;
+        private int mOutcome;
+
+        Record(String url, boolean preloaded, long launchTime) {
+            mUrl = url;
+            mPreloaded = preloaded;
+            mLaunchTime = launchTime;
+        }
+
+        public String getUrl() {
+            return mUrl;
+        }
+
+        /**
+         * @return Whether the url was passed to {@link Assistant#preLoad} before the launch.
+         */
+        public boolean isPreloaded() {
+            return mPreloaded;
+        }
+
+        public long getLaunchTime() {
+            return mLaunchTime;
+        }
+
+        public long getTabShownTime() {
+            return mTabShownTime;
+        }
+
+        public long getTabHiddenTime() {
+            return mTabHiddenTime;
+        }
+
+        /**
+         * @return One of the OUTCOME_ constants, 0 if the browser reported no end of navigation
+         * before the next launch.
+         */
+        public int getOutcome() {
+            return mOutcome;
+        }
+
+        /**
+         * @return Milliseconds from launch to NAVIGATION_STARTED, -1 if it was not reported.
+         */
+        public long getTimeToFirstNavigation() {
+            return mStartedTime == 0 ? -1 : mStartedTime - mLaunchTime;
+        }
+
+        /**
+         * @return Milliseconds from launch to the end of the navigation, -1 if it did not end.
+         */
+        public long getTimeToFinished() {
+            return mEndTime == 0 ? -1 : mEndTime - mLaunchTime;
+        }
+
+        @Override
+        public String toString() {
+            return "Record{url=" + mUrl + ", preloaded=" + mPreloaded + ", outcome=" + mOutcome
+                    + ", timeToFirstNavigation=" + getTimeToFirstNavigation()
+                    + ", timeToFinished=" + getTimeToFinished() + "}";
+        }
+    }
+
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final Record[] mRecords;
+    private int mNext;
+    private int mCount;
+    private Record mCurrent;
+    private Listener mListener;
+
+    NavigationMetrics(int capacity) {
+        mRecords = new Record[Math.max(1, capacity)];
+    }
+
+    void setListener(@Nullable Listener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * @return The completed records, oldest first.
+     */
+    @NonNull
+    public List<Record> getRecentRecords() {
+        List<Record> records = new ArrayList<>(mCount);
+        int start = (mNext - mCount + mRecords.length) % mRecords.length;
+        for (int i = 0; i < mCount; i++) {
+            records.add(mRecords[(start + i) % mRecords.length]);
+        }
+        return records;
+    }
+
+    /**
+     * Starts measuring a launch. Main thread only.
+     */
+    void onLaunch(String url, boolean preloaded) {
+        if (mCurrent != null) {
+            complete(mCurrent);
+        }
+        mCurrent = new Record(url, preloaded, SystemClock.elapsedRealtime());
+    }
+
+    /**
+     * Called from the CustomTabsCallback, on any thread.
+     */
+    void onNavigationEvent(final int navigationEvent) {
+        final long time = SystemClock.elapsedRealtime();
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                handleNavigationEvent(navigationEvent, time);
+            }
+        });
+    }
+
+    private void handleNavigationEvent(int navigationEvent, long time) {
+        Record record = mCurrent;
+        if (record == null) {
+            return;
+        }
+        switch (navigationEvent) {
+            case CustomTabsCallback.NAVIGATION_STARTED:
+                if (record.mStartedTime == 0) {
+                    record.mStartedTime = time;
+                }
+                break;
+            case CustomTabsCallback.NAVIGATION_FINISHED:
+                end(record, Record.OUTCOME_FINISHED, time);
+                break;
+            case CustomTabsCallback.NAVIGATION_FAILED:
+                end(record, Record.OUTCOME_FAILED, time);
+                break;
+            case CustomTabsCallback.NAVIGATION_ABORTED:
+                end(record, Record.OUTCOME_ABORTED, time);
+                break;
+            case CustomTabsCallback.TAB_SHOWN:
+                if (record.mTabShownTime == 0) {
+                    record.mTabShownTime = time;
+                }
+                break;
+            case CustomTabsCallback.TAB_HIDDEN:
+                record.mTabHiddenTime = time;
+                if (record.mOutcome == 0) {
+                    record.mOutcome = Record.OUTCOME_HIDDEN;
+                }
+                complete(record);
+                break;
+            default:
+                // unknown event.
+        }
+    }
+
+    private static void end(Record record, int outcome, long endTime) {
+        // the first navigation only, later ones are the user browsing in the tab.
+        if (record.mOutcome == 0) {
+            record.mOutcome = outcome;
+            record.mEndTime = endTime;
+        }
+    }
+
+    private void complete(Record record) {
+        mCurrent = null;
+
+        mRecords[mNext] = record;
+        mNext = (mNext + 1) % mRecords.length;
+        mCount = Math.min(mCount + 1, mRecords.length);
+
+        if (mListener != null) {
+            mListener.onNavigationRecorded(record);
+        }
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright 2015 ctakesoft.com<hal1000@ctakesoft.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.ctakesoft.ctassistant;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.net.ConnectivityManager;
+import android.support.annotation.NonNull;
+
+/**
+ * Process-wide view of whether the active network is metered, refreshed from the connectivity
+ * broadcast so that {@link Assistant#preLoad(java.util.List)} never makes a binder call for it.
+ * Main thread only.
+ */
+final class NetworkMonitor {
+    @SuppressWarnings("unused")
+    private static final String TAG = NetworkMonitor.class.getSimpleName();
+
+    private static NetworkMonitor sInstance;
+
+    private final ConnectivityManager mConnectivityManager;
+    private boolean mMetered;
+
+    private NetworkMonitor(Context appContext) {
+        mConnectivityManager = (ConnectivityManager) appContext.getSystemService(Context.CONNECTIVITY_SERVICE);
+        refresh();
+        appContext.registerReceiver(new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                refresh();
+            }
+        }, new IntentFilter(ConnectivityManager.CONNECTIVITY_ACTION));
+    }
+
+    /**
+     * @param context Any context, only its application context is kept.
+     * @return The process-wide instance, listening to connectivity changes from its creation.
+     */
+    static NetworkMonitor getInstance(@NonNull Context context) {
+        if (sInstance == null) {
+            sInstance = new NetworkMonitor(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    /**
+     * @return Whether the active network was metered at the last connectivity change.
+     */
+    boolean isMetered() {
+        return mMetered;
+    }
+
+    private void refresh() {
+        mMetered = mConnectivityManager != null && mConnectivityManager.isActiveNetworkMetered();
+    }
+}
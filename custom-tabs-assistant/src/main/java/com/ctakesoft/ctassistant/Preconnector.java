@@ -0,0 +1,172 @@
+/*
+ * Copyright 2015 ctakesoft.com<hal1000@ctakesoft.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ctakesoft.ctassistant;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Warms up the connection to an origin for the WebView fallback, the way
+ * {@code mayLaunchUrl} does in the browser.
+ *
+ * The host name is resolved, which fills the system DNS cache shared with the WebView. Then a
+ * HEAD request opens the TCP connection and completes the TLS handshake, and the kept-alive
+ * connection is left in the platform HttpURLConnection pool. The WebView has a network stack of
+ * its own: only {@link DiskResponseCache} fetches, opt-in and API 21+, reuse that connection, and
+ * the platform pool alone decides how long it stays open.
+ *
+ * An origin preconnected less than {@link #DEDUP_WINDOW_MILLIS} ago is not preconnected again;
+ * the last {@link #MAX_RECENT_ORIGINS} origins are remembered for that. These bound the
+ * bookkeeping only, no socket is owned or closed here. Only plain Java is used here so it can be
+ * tested on the JVM.
+ */
+final class Preconnector {
+    @SuppressWarnings("unused")
+    private static final String TAG = Preconnector.class.getSimpleName();
+
+    static final int MAX_RECENT_ORIGINS = 4;
+    static final long DEDUP_WINDOW_MILLIS = 30 * 1000;
+    private static final int TIMEOUT_MILLIS = 10 * 1000;
+
+    private static final Preconnector sInstance = new Preconnector();
+
+    // origin to the time it was preconnected, oldest first.
+    private final LinkedHashMap<String, Long> mOrigins = new LinkedHashMap<>();
+    private final ExecutorService mExecutor = Executors.newFixedThreadPool(2, new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, Preconnector.class.getSimpleName());
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    static Preconnector getInstance() {
+        return sInstance;
+    }
+
+    Preconnector() {
+    }
+
+    /**
+     * Warms up the connection to the origin of the url in the background, unless that was done
+     * within {@link #DEDUP_WINDOW_MILLIS}.
+     *
+     * @return The pending warmup, or null if it was skipped.
+     */
+    Future<?> preconnect(String url) {
+        final URL origin;
+        try {
+            origin = origin(url);
+        } catch (MalformedURLException e) {
+            return null;
+        }
+        if (origin == null) {
+            return null;
+        }
+        final String key = origin.toString();
+        long now = System.currentTimeMillis();
+        synchronized (this) {
+            expire(now);
+            if (mOrigins.containsKey(key)) {
+                return null;
+            }
+            if (mOrigins.size() >= MAX_RECENT_ORIGINS) {
+                Iterator<String> eldest = mOrigins.keySet().iterator();
+                eldest.next();
+                eldest.remove();
+            }
+            mOrigins.put(key, now);
+        }
+        return mExecutor.submit(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    connect(origin);
+                } catch (IOException e) {
+                    synchronized (Preconnector.this) {
+                        mOrigins.remove(key);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * @return Whether the origin of the url was preconnected less than {@link #DEDUP_WINDOW_MILLIS}
+     *         ago.
+     */
+    synchronized boolean isRecentlyPreconnected(String url) {
+        try {
+            URL origin = origin(url);
+            expire(System.currentTimeMillis());
+            return origin != null && mOrigins.containsKey(origin.toString());
+        } catch (MalformedURLException e) {
+            return false;
+        }
+    }
+
+    /* ----- internals ----- */
+
+    private static URL origin(String url) throws MalformedURLException {
+        URL parsed = new URL(url);
+        String protocol = parsed.getProtocol();
+        if (!"http".equals(protocol) && !"https".equals(protocol)) {
+            return null;
+        }
+        return new URL(protocol, parsed.getHost(), parsed.getPort(), "/");
+    }
+
+    private void expire(long now) {
+        Iterator<Map.Entry<String, Long>> iterator = mOrigins.entrySet().iterator();
+        while (iterator.hasNext()) {
+            if (now - iterator.next().getValue() < DEDUP_WINDOW_MILLIS) {
+                break;
+            }
+            iterator.remove();
+        }
+    }
+
+    private static void connect(URL origin) throws IOException {
+        InetAddress.getAllByName(origin.getHost());
+        HttpURLConnection connection = (HttpURLConnection) origin.openConnection();
+        connection.setConnectTimeout(TIMEOUT_MILLIS);
+        connection.setReadTimeout(TIMEOUT_MILLIS);
+        connection.setUseCaches(false);
+        connection.setInstanceFollowRedirects(false);
+        connection.setRequestMethod("HEAD");
+        int code = connection.getResponseCode();
+        // closing the drained stream, and not calling disconnect(), returns the connection to
+        // the keep-alive pool.
+        InputStream in = code < HttpURLConnection.HTTP_BAD_REQUEST
+                ? connection.getInputStream() : connection.getErrorStream();
+        if (in != null) {
+            in.close();
+        }
+    }
+}
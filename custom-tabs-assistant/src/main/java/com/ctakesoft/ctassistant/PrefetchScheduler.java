@@ -0,0 +1,194 @@
+/*
+ * Copyright 2015 ctakesoft.com<hal1000@ctakesoft.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ctakesoft.ctassistant;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.widget.AbsListView;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Keeps the links of the visible rows of a scrolling list preloaded.
+ *
+ * Scroll events are debounced, {@link Assistant#preLoad(List)} is called at most once per
+ * minimum interval, and nothing is sent while the list is flinging, so rows the user only flies
+ * past are never predicted.
+ *
+ * <p>For a ListView or GridView, set it as the {@link AbsListView.OnScrollListener}. For a
+ * RecyclerView, call {@link #onVisibleRangeChanged(int, int, boolean)} from its scroll listener
+ * with the positions reported by the layout manager.</p>
+ * All methods must be called on the main thread.
+ */
+public final class PrefetchScheduler implements AbsListView.OnScrollListener {
+    @SuppressWarnings("unused")
+    private static final String TAG = PrefetchScheduler.class.getSimpleName();
+
+    /**
+     * Provides the url of a list position.
+     */
+    public interface UrlProvider {
+        /**
+         * @param position Adapter position, may be past the end of the list.
+         * @return The url the row links to, or null if it has none.
+         */
+        @Nullable
+        String getUrl(int position);
+    }
+
+    public static final long DEFAULT_DEBOUNCE_MILLIS = 150;
+    public static final long DEFAULT_MIN_INTERVAL_MILLIS = 500;
+    public static final int DEFAULT_LOOK_AHEAD = 2;
+
+    private final Assistant mAssistant;
+    private final UrlProvider mUrlProvider;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final Runnable mDispatchRunnable = new Runnable() {
+        @Override
+        public void run() {
+            dispatch();
+        }
+    };
+
+    private long mDebounceMillis = DEFAULT_DEBOUNCE_MILLIS;
+    private long mMinIntervalMillis = DEFAULT_MIN_INTERVAL_MILLIS;
+    private int mLookAhead = DEFAULT_LOOK_AHEAD;
+
+    private int mFirstVisible = -1;
+    private int mLastVisible = -1;
+    private int mItemCount;
+    private boolean mScrollingBack;
+    private boolean mFlinging;
+    private long mLastDispatchTime;
+
+    /**
+     * @param assistant Used to preload.
+     * @param urlProvider Maps list positions to urls.
+     */
+    public PrefetchScheduler(@NonNull Assistant assistant, @NonNull UrlProvider urlProvider) {
+        mAssistant = assistant;
+        mUrlProvider = urlProvider;
+    }
+
+    /**
+     * Sets how long the visible range must be stable before it is preloaded.
+     */
+    public PrefetchScheduler setDebounceDelay(long millis) {
+        mDebounceMillis = Math.max(0, millis);
+        return this;
+    }
+
+    /**
+     * Sets the minimum time between two preload requests.
+     */
+    public PrefetchScheduler setMinInterval(long millis) {
+        mMinIntervalMillis = Math.max(0, millis);
+        return this;
+    }
+
+    /**
+     * Sets how many rows beyond the visible ones, in the scroll direction, are predicted.
+     */
+    public PrefetchScheduler setLookAhead(int rows) {
+        mLookAhead = Math.max(0, rows);
+        return this;
+    }
+
+    /**
+     * Reports the visible rows.
+     *
+     * @param firstVisible First visible adapter position.
+     * @param lastVisible Last visible adapter position.
+     * @param flinging Whether the list is flinging. Pending predictions are dropped while it is.
+     */
+    public void onVisibleRangeChanged(int firstVisible, int lastVisible, boolean flinging) {
+        if (firstVisible != mFirstVisible) {
+            mScrollingBack = firstVisible < mFirstVisible;
+        }
+        mFirstVisible = firstVisible;
+        mLastVisible = lastVisible;
+        mFlinging = flinging;
+        schedule();
+    }
+
+    /**
+     * Drops any pending prediction.
+     */
+    public void cancel() {
+        mHandler.removeCallbacks(mDispatchRunnable);
+    }
+
+    @Override
+    public void onScrollStateChanged(AbsListView view, int scrollState) {
+        mFlinging = scrollState == SCROLL_STATE_FLING;
+        schedule();
+    }
+
+    @Override
+    public void onScroll(AbsListView view, int firstVisibleItem, int visibleItemCount, int totalItemCount) {
+        mItemCount = totalItemCount;
+        if (visibleItemCount == 0) {
+            return;
+        }
+        int lastVisibleItem = firstVisibleItem + visibleItemCount - 1;
+        if (firstVisibleItem != mFirstVisible || lastVisibleItem != mLastVisible) {
+            onVisibleRangeChanged(firstVisibleItem, lastVisibleItem, mFlinging);
+        }
+    }
+
+    /* ----- internals ----- */
+
+    private void schedule() {
+        cancel();
+        if (mFlinging || mFirstVisible < 0) {
+            // the visible rows are stale before they could be loaded.
+            return;
+        }
+        long sinceLast = SystemClock.uptimeMillis() - mLastDispatchTime;
+        long delay = Math.max(mDebounceMillis, mMinIntervalMillis - sinceLast);
+        mHandler.postDelayed(mDispatchRunnable, delay);
+    }
+
+    private void dispatch() {
+        List<String> urls = new ArrayList<>();
+        for (int position = mFirstVisible; position <= mLastVisible; position++) {
+            addUrl(urls, position);
+        }
+        for (int i = 1; i <= mLookAhead; i++) {
+            addUrl(urls, mScrollingBack ? mFirstVisible - i : mLastVisible + i);
+        }
+        if (urls.isEmpty()) {
+            return;
+        }
+        mLastDispatchTime = SystemClock.uptimeMillis();
+        mAssistant.preLoad(urls);
+    }
+
+    private void addUrl(List<String> urls, int position) {
+        if (position < 0 || (mItemCount > 0 && position >= mItemCount)) {
+            return;
+        }
+        String url = mUrlProvider.getUrl(position);
+        if (url != null && !urls.contains(url)) {
+            urls.add(url);
+        }
+    }
+}
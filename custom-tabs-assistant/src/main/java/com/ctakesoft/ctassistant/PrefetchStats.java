@@ -0,0 +1,237 @@
+/*
+ * Copyright 2015 ctakesoft.com<hal1000@ctakesoft.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ctakesoft.ctassistant;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Matches launched urls against the preloaded ones and decides how much to speculate.
+ *
+ * <ul>
+ * <li>hit: a launched url had been preloaded.</li>
+ * <li>miss: a launched url had not been preloaded.</li>
+ * <li>waste: a preloaded url was replaced or passed over without being launched.</li>
+ * </ul>
+ * Counters decay, so the budget follows recent behaviour. Once enough predictions have been
+ * resolved, the number of urls sent shrinks with the hit rate, origins that are never launched
+ * are dropped, and speculation stops (except for an occasional probe) when almost nothing hits.
+ * On a metered network at most one url is sent.
+ *
+ * The counters are shared by the whole process, but the outstanding predictions are kept per
+ * source, usually an {@link Assistant}: each screen only resolves the predictions it made.
+ */
+public final class PrefetchStats {
+    /** Resolved predictions needed before the budget adapts. */
+    static final int MIN_SAMPLES = 10;
+    /** Below this hit rate, speculation stops. */
+    static final double MIN_HIT_RATE = 0.05;
+    /** At or above this hit rate, the full budget is used. */
+    static final double TARGET_HIT_RATE = 0.5;
+    /** While speculation is stopped, one in this many requests still sends one url. */
+    static final int PROBE_INTERVAL = 10;
+    private static final double DECAY = 0.98;
+    /** Origins tracked at most, the least recently used are forgotten. */
+    static final int MAX_ORIGINS = 64;
+
+    /**
+     * Decaying hit, miss and waste counts.
+     */
+    public static final class Counters {
+        private double mHits;
+        private double mMisses;
+        private double mWaste;
+
+        public double getHits() {
+            return mHits;
+        }
+
+        public double getMisses() {
+            return mMisses;
+        }
+
+        public double getWaste() {
+            return mWaste;
+        }
+
+        /**
+         * @return Share of the resolved predictions that were launched.
+         */
+        public double getHitRate() {
+            double resolved = mHits + mWaste;
+            return resolved == 0 ? 0 : mHits / resolved;
+        }
+
+        double getResolved() {
+            return mHits + mWaste;
+        }
+
+        void add(double hits, double misses, double waste) {
+            mHits = mHits * DECAY + hits;
+            mMisses = mMisses * DECAY + misses;
+            mWaste = mWaste * DECAY + waste;
+        }
+    }
+
+    private final Counters mTotal = new Counters();
+    // access ordered: least recently used first.
+    private final Map<String, Counters> mOrigins = new LinkedHashMap<String, Counters>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Counters> eldest) {
+            return size() > MAX_ORIGINS;
+        }
+    };
+    // outstanding predictions per source, weakly keyed so a forgotten source is not leaked.
+    private final Map<Object, List<String>> mOutstanding = new WeakHashMap<>();
+    private int mSkipped;
+
+    /**
+     * @return The counters over all origins.
+     */
+    public Counters getTotal() {
+        return mTotal;
+    }
+
+    /**
+     * @param urlString Any url of the origin.
+     * @return The counters of the origin, or null if nothing was recorded for it.
+     */
+    public Counters getCounters(String urlString) {
+        return mOrigins.get(origin(urlString));
+    }
+
+    /**
+     * @param maxUrls The most urls the caller would send.
+     * @param metered Whether the active network is metered.
+     * @return How many urls to send, 0 to skip speculation.
+     */
+    int getBudget(int maxUrls, boolean metered) {
+        int budget;
+        if (mTotal.getResolved() < MIN_SAMPLES) {
+            budget = maxUrls;
+        } else if (mTotal.getHitRate() < MIN_HIT_RATE) {
+            budget = 0;
+        } else {
+            double ratio = Math.min(1.0, mTotal.getHitRate() / TARGET_HIT_RATE);
+            budget = Math.max(1, (int) Math.ceil(maxUrls * ratio));
+        }
+        return metered ? Math.min(1, budget) : budget;
+    }
+
+    /**
+     * Applies the budget and drops origins that never hit.
+     *
+     * @param rankedUrls Candidate urls, most likely first.
+     * @param maxUrls The most urls the caller would send.
+     * @param metered Whether the active network is metered.
+     * @return The urls to send, possibly empty.
+     */
+    List<String> filter(List<String> rankedUrls, int maxUrls, boolean metered) {
+        int budget = getBudget(maxUrls, metered);
+        if (budget == 0 && mSkipped++ % PROBE_INTERVAL == 0) {
+            // keep learning, even when speculation does not pay off.
+            budget = 1;
+        }
+        List<String> urls = new ArrayList<>(budget);
+        for (String url : rankedUrls) {
+            if (urls.size() >= budget) {
+                break;
+            }
+            Counters counters = mOrigins.get(origin(url));
+            if (counters != null && counters.getResolved() >= MIN_SAMPLES
+                    && counters.getHitRate() < MIN_HIT_RATE) {
+                continue;
+            }
+            urls.add(url);
+        }
+        return urls;
+    }
+
+    /**
+     * Records the urls just sent to the browser. Earlier predictions of the same source not among
+     * them are waste.
+     */
+    void onPredicted(Object source, List<String> urls) {
+        List<String> outstanding = mOutstanding.get(source);
+        if (outstanding == null) {
+            outstanding = new ArrayList<>();
+            mOutstanding.put(source, outstanding);
+        }
+        for (String url : outstanding) {
+            if (!urls.contains(url)) {
+                record(url, 0, 0, 1);
+            }
+        }
+        outstanding.clear();
+        outstanding.addAll(urls);
+    }
+
+    /**
+     * Records a launch, resolving the outstanding predictions of its source.
+     */
+    void onLaunched(Object source, String url) {
+        List<String> outstanding = mOutstanding.remove(source);
+        boolean hit = outstanding != null && outstanding.remove(url);
+        record(url, hit ? 1 : 0, hit ? 0 : 1, 0);
+        recordWaste(outstanding);
+    }
+
+    /**
+     * Resolves the outstanding predictions of a source that is going away as waste.
+     */
+    void onDiscarded(Object source) {
+        recordWaste(mOutstanding.remove(source));
+    }
+
+    private void recordWaste(List<String> urls) {
+        if (urls != null) {
+            for (String wasted : urls) {
+                record(wasted, 0, 0, 1);
+            }
+        }
+    }
+
+    private void record(String url, int hits, int misses, int waste) {
+        String origin = origin(url);
+        Counters counters = mOrigins.get(origin);
+        if (counters == null) {
+            counters = new Counters();
+            mOrigins.put(origin, counters);
+        }
+        counters.add(hits, misses, waste);
+        mTotal.add(hits, misses, waste);
+    }
+
+    static String origin(String urlString) {
+        try {
+            URI uri = new URI(urlString);
+            if (uri.getScheme() == null || uri.getHost() == null) {
+                return urlString;
+            }
+            String origin = uri.getScheme().toLowerCase(Locale.US) + "://" + uri.getHost().toLowerCase(Locale.US);
+            return uri.getPort() == -1 ? origin : origin + ":" + uri.getPort();
+        } catch (URISyntaxException e) {
+            return urlString;
+        }
+    }
+}
@@ -0,0 +1,365 @@
+/*
+ * Copyright 2015 ctakesoft.com<hal1000@ctakesoft.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ctakesoft.ctassistant;
+
+import android.content.BroadcastReceiver;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.SharedPreferences;
+import android.content.pm.PackageManager;
+import android.os.AsyncTask;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.customtabs.CustomTabsClient;
+import android.support.customtabs.CustomTabsServiceConnection;
+import android.util.Log;
+
+import org.chromium.customtabsclient.shared.CustomTabsHelper;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Opt-in selection of the Custom Tabs provider by measurement rather than by the fixed priority
+ * order of {@link CustomTabsHelper}.
+ *
+ * When several providers are installed, all of them are bound in parallel and warmed up, each on
+ * a thread of its own, and the one with the lowest bind plus warmup time is used once all have
+ * answered or {@link #PROBE_TIMEOUT_MILLIS} has passed. Each provider is unbound as soon as a
+ * faster one has been measured; the winner's binding is handed over to the {@link ConnectionPool},
+ * so it is not bound and warmed up twice. The selection is only a preference: the provider is
+ * still resolved by {@link CustomTabsHelper}, which drops it once it no longer supports Custom
+ * Tabs. The ranking is persisted and reused, without binding, until a provider is installed,
+ * removed or updated; any package change makes the next connection select again.
+ * All methods must be called on the main thread.
+ */
+public final class ProviderProbe {
+    @SuppressWarnings("unused")
+    private static final String TAG = ProviderProbe.class.getSimpleName();
+
+    static final long PROBE_TIMEOUT_MILLIS = 3000;
+
+    private static final String PREFS_NAME = "com.ctakesoft.ctassistant.ProviderProbe";
+    private static final String KEY_VERSIONS = "versions";
+    private static final String KEY_RANKING = "ranking";
+
+    /**
+     * Told about the selected provider.
+     */
+    interface Listener {
+        /**
+         * @param packageName The provider to bind, or null if none responded, in which case the
+         *                    fixed priority order applies.
+         */
+        void onProviderSelected(@Nullable String packageName);
+    }
+
+    private static boolean sEnabled;
+    private static ProviderProbe sInstance;
+    private static boolean sReceiverRegistered;
+
+    private final Context mAppContext;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final List<Listener> mListeners = new ArrayList<>();
+    private final Map<String, CustomTabsServiceConnection> mConnections = new HashMap<>();
+    private final Map<String, Long> mLatencies = new HashMap<>();
+    // the fastest provider measured so far, kept bound.
+    private String mBestPackageName;
+    private CustomTabsServiceConnection mBestConnection;
+    private final Runnable mTimeoutRunnable = new Runnable() {
+        @Override
+        public void run() {
+            Log.d(TAG, "probe timed out, unresponsive: " + mConnections.keySet());
+            finish();
+        }
+    };
+
+    private boolean mStarted;
+    private boolean mSelected;
+    private String mSelectedPackageName;
+    private String mVersionsKey;
+
+    /**
+     * Enables or disables the measured selection, used by the next {@link Assistant#connect()}.
+     * Disabled by default.
+     */
+    public static void setEnabled(boolean enabled) {
+        sEnabled = enabled;
+        if (!enabled) {
+            CustomTabsHelper.setPreferredPackageName(null);
+        }
+    }
+
+    public static boolean isEnabled() {
+        return sEnabled;
+    }
+
+    /**
+     * @return The providers ranked by the last probe, fastest first, empty if there was none.
+     */
+    @NonNull
+    public static List<String> getRanking(@NonNull Context context) {
+        return ProviderRanking.decode(prefs(context).getString(KEY_RANKING, null));
+    }
+
+    /**
+     * Selects the provider once per process. The listener is called right away if it is known
+     * already.
+     */
+    static void select(@NonNull Context context, @NonNull Listener listener) {
+        if (sInstance == null) {
+            sInstance = new ProviderProbe(context.getApplicationContext());
+            registerReceiver(context.getApplicationContext());
+        }
+        sInstance.addListener(listener);
+    }
+
+    /**
+     * Forgets the selected provider after a package change. The next {@link #select} selects
+     * again; a probe in progress completes first.
+     */
+    static void reset() {
+        if (sInstance != null && sInstance.mSelected) {
+            sInstance = null;
+            CustomTabsHelper.setPreferredPackageName(null);
+        }
+    }
+
+    /**
+     * Forgets the selected provider if it is the given one, which could not be bound.
+     *
+     * @return Whether it was the selected provider.
+     */
+    static boolean reset(@NonNull String packageName) {
+        if (sInstance == null || !packageName.equals(sInstance.mSelectedPackageName)) {
+            return false;
+        }
+        reset();
+        return true;
+    }
+
+    private ProviderProbe(Context appContext) {
+        mAppContext = appContext;
+    }
+
+    /* ----- internals ----- */
+
+    private static void registerReceiver(Context appContext) {
+        if (sReceiverRegistered) {
+            return;
+        }
+        sReceiverRegistered = true;
+        IntentFilter filter = new IntentFilter();
+        filter.addAction(Intent.ACTION_PACKAGE_ADDED);
+        filter.addAction(Intent.ACTION_PACKAGE_REMOVED);
+        filter.addAction(Intent.ACTION_PACKAGE_CHANGED);
+        filter.addAction(Intent.ACTION_PACKAGE_REPLACED);
+        filter.addDataScheme("package");
+        appContext.registerReceiver(new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                // no PackageManager call here: selecting again reuses the persisted ranking
+                // unless the providers or their versions have changed.
+                reset();
+            }
+        }, filter);
+    }
+
+    private static SharedPreferences prefs(Context context) {
+        return context.getApplicationContext().getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    private void addListener(Listener listener) {
+        if (mSelected) {
+            listener.onProviderSelected(mSelectedPackageName);
+            return;
+        }
+        mListeners.add(listener);
+        if (!mStarted) {
+            mStarted = true;
+            start();
+        }
+    }
+
+    /**
+     * Lists the providers and their versions off the main thread, then probes them unless the
+     * persisted ranking still applies.
+     */
+    private void start() {
+        AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                final List<String> candidates = CustomTabsHelper.getCustomTabsPackages(mAppContext);
+                final Map<String, Integer> versions = new HashMap<>();
+                PackageManager pm = mAppContext.getPackageManager();
+                for (String packageName : candidates) {
+                    try {
+                        versions.put(packageName, pm.getPackageInfo(packageName, 0).versionCode);
+                    } catch (PackageManager.NameNotFoundException e) {
+                        versions.put(packageName, -1);
+                    }
+                }
+                final String versionsKey = ProviderRanking.key(versions);
+                SharedPreferences prefs = prefs(mAppContext);
+                final String cached = versionsKey.equals(prefs.getString(KEY_VERSIONS, null))
+                        ? ProviderRanking.select(ProviderRanking.decode(prefs.getString(KEY_RANKING, null)), candidates)
+                        : null;
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        mVersionsKey = versionsKey;
+                        if (cached != null) {
+                            Log.d(TAG, "start: cached ranking, selected " + cached);
+                            select(cached);
+                        } else if (candidates.size() <= 1) {
+                            // nothing to compare.
+                            select(candidates.isEmpty() ? null : candidates.get(0));
+                        } else {
+                            probe(candidates);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    private void probe(List<String> candidates) {
+        for (final String packageName : candidates) {
+            final long bindStart = SystemClock.elapsedRealtime();
+            CustomTabsServiceConnection connection = new CustomTabsServiceConnection() {
+                @Override
+                public void onCustomTabsServiceConnected(ComponentName name, final CustomTabsClient client) {
+                    final long bindMillis = SystemClock.elapsedRealtime() - bindStart;
+                    // off the BinderWorker: the warmups run side by side, and don't hold up the
+                    // binder calls of the Assistants.
+                    Thread thread = new Thread(new Runnable() {
+                        @Override
+                        public void run() {
+                            long warmupStart = SystemClock.elapsedRealtime();
+                            final boolean warmedUp = client.warmup(0);
+                            final long warmupMillis = SystemClock.elapsedRealtime() - warmupStart;
+                            mHandler.post(new Runnable() {
+                                @Override
+                                public void run() {
+                                    onProbed(packageName, warmedUp, bindMillis, warmupMillis);
+                                }
+                            });
+                        }
+                    }, TAG + "-" + packageName);
+                    thread.setDaemon(true);
+                    thread.start();
+                }
+
+                @Override
+                public void onServiceDisconnected(ComponentName name) {
+                    // measured when connected, a crash before that counts as no response.
+                }
+            };
+            if (CustomTabsClient.bindCustomTabsService(mAppContext, packageName, connection)) {
+                mConnections.put(packageName, connection);
+            }
+        }
+        if (mConnections.isEmpty()) {
+            finish();
+            return;
+        }
+        mHandler.postDelayed(mTimeoutRunnable, PROBE_TIMEOUT_MILLIS);
+    }
+
+    private void onProbed(String packageName, boolean warmedUp, long bindMillis, long warmupMillis) {
+        Log.d(TAG, "onProbed: " + packageName + " warmup " + warmedUp + ", bind " + bindMillis
+                + " ms, warmup " + warmupMillis + " ms");
+        CustomTabsServiceConnection connection = mConnections.remove(packageName);
+        if (connection == null) {
+            // answered after the timeout.
+            return;
+        }
+        if (warmedUp) {
+            long latency = bindMillis + warmupMillis;
+            mLatencies.put(packageName, latency);
+            if (mBestPackageName == null || isFaster(packageName, latency, mBestPackageName)) {
+                // the warm binding worth keeping until the ConnectionPool takes it over.
+                CustomTabsServiceConnection previous = mBestConnection;
+                mBestPackageName = packageName;
+                mBestConnection = connection;
+                connection = previous;
+            }
+        }
+        if (connection != null) {
+            mAppContext.unbindService(connection);
+        }
+        if (mConnections.isEmpty()) {
+            finish();
+        }
+    }
+
+    private boolean isFaster(String packageName, long latency, String otherPackageName) {
+        long otherLatency = mLatencies.get(otherPackageName);
+        // same order as ProviderRanking.rank().
+        return latency != otherLatency ? latency < otherLatency : packageName.compareTo(otherPackageName) < 0;
+    }
+
+    /**
+     * Unbinds the providers that did not respond, hands the fastest one over to the
+     * {@link ConnectionPool}, persists the ranking and selects its fastest provider.
+     */
+    private void finish() {
+        mHandler.removeCallbacks(mTimeoutRunnable);
+        for (CustomTabsServiceConnection connection : mConnections.values()) {
+            mAppContext.unbindService(connection);
+        }
+        mConnections.clear();
+        if (mBestConnection != null) {
+            final CustomTabsServiceConnection connection = mBestConnection;
+            ConnectionPool.getInstance(mAppContext).adoptWarmProvider(mBestPackageName, new Runnable() {
+                @Override
+                public void run() {
+                    mAppContext.unbindService(connection);
+                }
+            });
+            mBestConnection = null;
+        }
+        List<String> ranking = ProviderRanking.rank(mLatencies);
+        prefs(mAppContext).edit()
+                .putString(KEY_VERSIONS, mVersionsKey)
+                .putString(KEY_RANKING, ProviderRanking.encode(ranking))
+                .apply();
+        if (!mSelected) {
+            select(ranking.isEmpty() ? null : ranking.get(0));
+        }
+    }
+
+    private void select(String packageName) {
+        mSelected = true;
+        mSelectedPackageName = packageName;
+        if (packageName != null) {
+            CustomTabsHelper.setPreferredPackageName(packageName);
+        }
+        List<Listener> listeners = new ArrayList<>(mListeners);
+        mListeners.clear();
+        for (Listener listener : listeners) {
+            listener.onProviderSelected(packageName);
+        }
+    }
+}
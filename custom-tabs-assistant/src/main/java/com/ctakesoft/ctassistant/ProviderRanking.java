@@ -0,0 +1,98 @@
+/*
+ * Copyright 2015 ctakesoft.com<hal1000@ctakesoft.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ctakesoft.ctassistant;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Measured order of the Custom Tabs providers, fastest responsive one first, for
+ * {@link ProviderProbe}. A ranking is only valid for the provider versions it was measured on,
+ * see {@link #key(Map)}.
+ */
+final class ProviderRanking {
+    private static final String SEPARATOR = ",";
+
+    private ProviderRanking() {}
+
+    /**
+     * @param versions Version code by package name of the installed providers.
+     * @return A string identifying the installed provider versions.
+     */
+    static String key(Map<String, Integer> versions) {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, Integer> entry : new TreeMap<>(versions).entrySet()) {
+            if (sb.length() > 0) {
+                sb.append(SEPARATOR);
+            }
+            sb.append(entry.getKey()).append('@').append(entry.getValue());
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @param latencies Bind plus warmup time by package name, of the providers that responded.
+     * @return The package names, fastest first.
+     */
+    static List<String> rank(final Map<String, Long> latencies) {
+        List<String> ranking = new ArrayList<>(latencies.keySet());
+        Collections.sort(ranking, new Comparator<String>() {
+            @Override
+            public int compare(String lhs, String rhs) {
+                int byLatency = latencies.get(lhs).compareTo(latencies.get(rhs));
+                return byLatency != 0 ? byLatency : lhs.compareTo(rhs);
+            }
+        });
+        return ranking;
+    }
+
+    /**
+     * @return The first ranked provider that is still installed, or null.
+     */
+    static String select(List<String> ranking, List<String> candidates) {
+        for (String packageName : ranking) {
+            if (candidates.contains(packageName)) {
+                return packageName;
+            }
+        }
+        return null;
+    }
+
+    static String encode(List<String> ranking) {
+        StringBuilder sb = new StringBuilder();
+        for (String packageName : ranking) {
+            if (sb.length() > 0) {
+                sb.append(SEPARATOR);
+            }
+            sb.append(packageName);
+        }
+        return sb.toString();
+    }
+
+    static List<String> decode(String encoded) {
+        List<String> ranking = new ArrayList<>();
+        if (encoded == null || encoded.isEmpty()) {
+            return ranking;
+        }
+        Collections.addAll(ranking, encoded.split(SEPARATOR));
+        return ranking;
+    }
+}
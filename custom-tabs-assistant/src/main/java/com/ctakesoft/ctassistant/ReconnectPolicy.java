@@ -0,0 +1,70 @@
+/*
+ * Copyright 2015 ctakesoft.com<hal1000@ctakesoft.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ctakesoft.ctassistant;
+
+/**
+ * How the {@link ConnectionPool} rebinds after the browser process died: with exponentially
+ * growing delays, until the service is back or the attempts run out.
+ */
+public final class ReconnectPolicy {
+    /**
+     * 5 attempts, after 1, 2, 4, 8 and 16 seconds.
+     */
+    public static final ReconnectPolicy DEFAULT = new ReconnectPolicy(1000, 30 * 1000, 5);
+    /**
+     * Never rebinds automatically.
+     */
+    public static final ReconnectPolicy NONE = new ReconnectPolicy(0, 0, 0);
+
+    private final long mInitialDelayMillis;
+    private final long mMaxDelayMillis;
+    private final int mMaxAttempts;
+
+    /**
+     * @param initialDelayMillis Delay before the first attempt, doubled for each next one.
+     * @param maxDelayMillis Upper bound of the delay.
+     * @param maxAttempts Attempts before giving up, 0 to never rebind.
+     */
+    public ReconnectPolicy(long initialDelayMillis, long maxDelayMillis, int maxAttempts) {
+        if (initialDelayMillis < 0 || maxDelayMillis < initialDelayMillis || maxAttempts < 0) {
+            throw new IllegalArgumentException("invalid policy: " + initialDelayMillis + ", "
+                    + maxDelayMillis + ", " + maxAttempts);
+        }
+        mInitialDelayMillis = initialDelayMillis;
+        mMaxDelayMillis = maxDelayMillis;
+        mMaxAttempts = maxAttempts;
+    }
+
+    public int getMaxAttempts() {
+        return mMaxAttempts;
+    }
+
+    /**
+     * @param attempt 0 for the first attempt.
+     * @return The delay before the attempt, or -1 if there is none left.
+     */
+    public long getDelay(int attempt) {
+        if (attempt >= mMaxAttempts) {
+            return -1;
+        }
+        long delay = mInitialDelayMillis;
+        for (int i = 0; i < attempt && delay < mMaxDelayMillis; i++) {
+            delay *= 2;
+        }
+        return Math.min(delay, mMaxDelayMillis);
+    }
+}
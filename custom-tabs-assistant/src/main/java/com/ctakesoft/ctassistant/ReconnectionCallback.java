@@ -0,0 +1,39 @@
+/*
+ * Copyright 2015 ctakesoft.com<hal1000@ctakesoft.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ctakesoft.ctassistant;
+
+/**
+ * {@link ConnectionCallback} that is also told about the automatic rebinding after the browser
+ * process died. See {@link ConnectionPool#setReconnectPolicy(ReconnectPolicy)}.
+ */
+public interface ReconnectionCallback extends ConnectionCallback {
+
+    /**
+     * A rebind is scheduled. {@link #onConnected()} follows once the service is back, with the
+     * warmup and the last predictions replayed.
+     *
+     * @param attempt 1 for the first attempt.
+     * @param delayMillis Delay before the attempt.
+     */
+    void onReconnecting(int attempt, long delayMillis);
+
+    /**
+     * The attempts ran out. The Assistant is disconnected, call {@link Assistant#connect()} to
+     * try again.
+     */
+    void onReconnectFailed();
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright 2015 ctakesoft.com<hal1000@ctakesoft.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ctakesoft.ctassistant;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * Bounded set of keyed sessions, each with its own predictions, evicted in LRU order.
+ *
+ * Used by {@link Assistant#preLoad(String, List)} so that the speculation for one surface does
+ * not replace the one prepared for another. The session type is a parameter only so that the
+ * bookkeeping can be tested on the JVM. All methods must be called on the main thread.
+ */
+final class SessionPool<S> {
+
+    /**
+     * The session of a key, and its predictions.
+     */
+    static final class Slot<S> {
+        final String key;
+        S session;
+        boolean creating;
+        boolean evicted;
+        // sent to the session.
+        List<String> lastPredictions;
+        // waiting for the session.
+        List<String> pendingPredictions;
+
+        Slot(String key) {
+            this.key = key;
+        }
+
+        boolean isPredicted(String url) {
+            return (lastPredictions != null && lastPredictions.contains(url))
+                    || (pendingPredictions != null && pendingPredictions.contains(url));
+        }
+    }
+
+    // access ordered: least recently used first.
+    private final LinkedHashMap<String, Slot<S>> mSlots = new LinkedHashMap<>(8, 0.75f, true);
+    private int mCapacity;
+
+    SessionPool(int capacity) {
+        mCapacity = capacity;
+    }
+
+    int getCapacity() {
+        return mCapacity;
+    }
+
+    /**
+     * Changes the bound, evicting the least recently used slots if needed.
+     */
+    void setCapacity(int capacity) {
+        mCapacity = Math.max(0, capacity);
+        evict(mCapacity);
+    }
+
+    /**
+     * @return The slot of the key, created if needed, possibly evicting the least recently used
+     *         one. Null if the capacity is 0.
+     */
+    Slot<S> obtain(String key) {
+        Slot<S> slot = mSlots.get(key);
+        if (slot != null || mCapacity == 0) {
+            return slot;
+        }
+        evict(mCapacity - 1);
+        slot = new Slot<>(key);
+        mSlots.put(key, slot);
+        return slot;
+    }
+
+    /**
+     * @return Whether the slot is still in the pool.
+     */
+    boolean contains(Slot<S> slot) {
+        return !slot.evicted;
+    }
+
+    /**
+     * @return The slot predicting the url, or else the slot keyed by the origin of the url, or
+     *         null.
+     */
+    Slot<S> findForUrl(String url) {
+        for (Slot<S> slot : mSlots.values()) {
+            if (slot.isPredicted(url)) {
+                return mSlots.get(slot.key);
+            }
+        }
+        return mSlots.get(PrefetchStats.origin(url));
+    }
+
+    boolean isPredicted(String url) {
+        for (Slot<S> slot : mSlots.values()) {
+            if (slot.isPredicted(url)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return The slots holding predictions but no session.
+     */
+    List<Slot<S>> getSlotsWaitingForSession() {
+        List<Slot<S>> waiting = new ArrayList<>();
+        for (Slot<S> slot : mSlots.values()) {
+            if (slot.session == null && slot.pendingPredictions != null) {
+                waiting.add(slot);
+            }
+        }
+        return waiting;
+    }
+
+    /**
+     * Drops all sessions. If {@code replay}, the last predictions are kept to be sent again to
+     * the next sessions.
+     */
+    void clearSessions(boolean replay) {
+        for (Slot<S> slot : mSlots.values()) {
+            slot.session = null;
+            slot.creating = false;
+            if (replay && slot.pendingPredictions == null) {
+                slot.pendingPredictions = slot.lastPredictions;
+            }
+            slot.lastPredictions = null;
+        }
+    }
+
+    /**
+     * Forgets the predictions the browser refused, so that they are sent again.
+     */
+    void onPredictionsRejected(List<String> predictions) {
+        for (Slot<S> slot : mSlots.values()) {
+            if (slot.lastPredictions == predictions) {
+                slot.lastPredictions = null;
+            }
+        }
+    }
+
+    private void evict(int maxSize) {
+        Iterator<Slot<S>> iterator = mSlots.values().iterator();
+        while (mSlots.size() > maxSize && iterator.hasNext()) {
+            iterator.next().evicted = true;
+            iterator.remove();
+        }
+    }
+}
@@ -0,0 +1,198 @@
+/*
+ * Copyright 2015 ctakesoft.com<hal1000@ctakesoft.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ctakesoft.ctassistant;
+
+import android.app.Activity;
+import android.app.Application;
+import android.content.Context;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.MessageQueue;
+import android.support.annotation.NonNull;
+import android.view.View;
+import android.view.ViewTreeObserver;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Keeps the bind and warmup of the CustomTabsService out of the app's own cold start.
+ *
+ * Once enabled, {@link Assistant#connect()} and {@link #warmup(Context)} wait until the first
+ * activity has drawn its first frame and the main thread is idle, or until the maximum delay has
+ * passed, before binding. Warming up starts the browser process and loads its native libraries,
+ * which would otherwise compete with the first frames of the app. After that first idle moment,
+ * connections are made right away.
+ * All methods must be called on the main thread.
+ */
+public final class StartupScheduler {
+    @SuppressWarnings("unused")
+    private static final String TAG = StartupScheduler.class.getSimpleName();
+
+    /**
+     * Default upper bound of the deferral.
+     */
+    public static final long DEFAULT_MAX_DELAY_MILLIS = 3000;
+
+    private static final Handler sHandler = new Handler(Looper.getMainLooper());
+    private static final List<Runnable> sPending = new ArrayList<>();
+    private static final Runnable sRunPending = new Runnable() {
+        @Override
+        public void run() {
+            runPending();
+        }
+    };
+    private static final Runnable sAddIdleHandler = new Runnable() {
+        @Override
+        public void run() {
+            sFirstFrameDrawn = true;
+            if (!sPending.isEmpty()) {
+                Looper.myQueue().addIdleHandler(sIdleHandler);
+            }
+        }
+    };
+    private static final MessageQueue.IdleHandler sIdleHandler = new MessageQueue.IdleHandler() {
+        @Override
+        public boolean queueIdle() {
+            runPending();
+            return false;
+        }
+    };
+
+    private static boolean sEnabled;
+    private static boolean sStartupOver;
+    private static boolean sFirstFrameDrawn;
+    private static long sMaxDelayMillis = DEFAULT_MAX_DELAY_MILLIS;
+
+    private StartupScheduler() {}
+
+    /**
+     * Defers the connections made during startup until the first activity has drawn its first
+     * frame. Call it from Application.onCreate().
+     *
+     * @param maxDelayMillis Upper bound of the deferral, see {@link #DEFAULT_MAX_DELAY_MILLIS}.
+     */
+    public static void enable(@NonNull Application application, long maxDelayMillis) {
+        sMaxDelayMillis = Math.max(0, maxDelayMillis);
+        if (sEnabled) {
+            return;
+        }
+        sEnabled = true;
+        application.registerActivityLifecycleCallbacks(new FirstFrameCallbacks(application));
+    }
+
+    /**
+     * Binds and warms up the Custom Tabs provider from any context, for instance from
+     * Application.onCreate() before any activity exists. The binding is kept for the
+     * {@link ConnectionPool} grace period, so the first {@link Assistant} finds it ready.
+     * Nothing is done if the provider was already warmed up in this process.
+     */
+    public static void warmup(@NonNull Context context) {
+        final Context appContext = context.getApplicationContext();
+        runWhenIdle(new Runnable() {
+            @Override
+            public void run() {
+                ConnectionPool.getInstance(appContext).prewarm();
+            }
+        });
+    }
+
+    /**
+     * Runs the task now, or at the end of startup if the scheduler is enabled and startup is not
+     * over yet.
+     */
+    static void runWhenIdle(@NonNull Runnable task) {
+        if (!sEnabled || sStartupOver) {
+            task.run();
+            return;
+        }
+        if (sPending.contains(task)) {
+            return;
+        }
+        sPending.add(task);
+        if (sPending.size() == 1) {
+            if (sFirstFrameDrawn) {
+                Looper.myQueue().addIdleHandler(sIdleHandler);
+            }
+            sHandler.postDelayed(sRunPending, sMaxDelayMillis);
+        }
+    }
+
+    /* ----- internals ----- */
+
+    private static void runPending() {
+        sStartupOver = true;
+        Looper.myQueue().removeIdleHandler(sIdleHandler);
+        sHandler.removeCallbacks(sRunPending);
+        List<Runnable> tasks = new ArrayList<>(sPending);
+        sPending.clear();
+        for (Runnable task : tasks) {
+            task.run();
+        }
+    }
+
+    /**
+     * Waits for the first resumed activity to draw, then lets the idle handler run.
+     */
+    private static final class FirstFrameCallbacks implements Application.ActivityLifecycleCallbacks {
+        private final Application mApplication;
+
+        FirstFrameCallbacks(Application application) {
+            mApplication = application;
+        }
+
+        @Override
+        public void onActivityResumed(Activity activity) {
+            mApplication.unregisterActivityLifecycleCallbacks(this);
+            final View decorView = activity.getWindow().getDecorView();
+            decorView.getViewTreeObserver().addOnPreDrawListener(new ViewTreeObserver.OnPreDrawListener() {
+                @Override
+                public boolean onPreDraw() {
+                    decorView.getViewTreeObserver().removeOnPreDrawListener(this);
+                    // runs once the traversal that draws this frame is done.
+                    sHandler.post(sAddIdleHandler);
+                    return true;
+                }
+            });
+        }
+
+        @Override
+        public void onActivityCreated(Activity activity, Bundle savedInstanceState) {
+        }
+
+        @Override
+        public void onActivityStarted(Activity activity) {
+        }
+
+        @Override
+        public void onActivityPaused(Activity activity) {
+        }
+
+        @Override
+        public void onActivityStopped(Activity activity) {
+        }
+
+        @Override
+        public void onActivitySaveInstanceState(Activity activity, Bundle outState) {
+        }
+
+        @Override
+        public void onActivityDestroyed(Activity activity) {
+        }
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright 2015 ctakesoft.com<hal1000@ctakesoft.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ctakesoft.ctassistant;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.view.MotionEvent;
+import android.view.View;
+import android.view.ViewConfiguration;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Preloads the url of a link as soon as it is touched, using the 100-200 ms before the click
+ * to warm up the page that {@link Assistant#launch} will open.
+ *
+ * One instance can be shared by any number of views: bind each view's url with
+ * {@link #setUrl(View, String)} and set the instance with {@link View#setOnTouchListener}.
+ * Touching a view sends its url as the most likely one; the url list is built once, by
+ * {@link #setUrl}. If the touch turns into a scroll or is cancelled, the predictions from before
+ * the touch are sent again. Touch events are never consumed, clicks work as before.
+ * All methods must be called on the main thread.
+ */
+public final class TouchPreloader implements View.OnTouchListener {
+    @SuppressWarnings("unused")
+    private static final String TAG = TouchPreloader.class.getSimpleName();
+
+    private final Assistant mAssistant;
+
+    private View mTouchedView;
+    private float mDownX;
+    private float mDownY;
+
+    public TouchPreloader(@NonNull Assistant assistant) {
+        mAssistant = assistant;
+    }
+
+    /**
+     * Binds the url preloaded when the view is touched.
+     *
+     * @param url The url the view links to, or null to preload nothing.
+     */
+    public static void setUrl(@NonNull View view, @Nullable String url) {
+        // the list is what preLoad() takes, so a touch does not build one.
+        view.setTag(R.id.ctassistant_preload_url, url == null ? null : Collections.singletonList(url));
+    }
+
+    @Override
+    public boolean onTouch(View v, MotionEvent event) {
+        switch (event.getActionMasked()) {
+            case MotionEvent.ACTION_DOWN:
+                @SuppressWarnings("unchecked")
+                List<String> urls = (List<String>) v.getTag(R.id.ctassistant_preload_url);
+                if (urls != null) {
+                    mTouchedView = v;
+                    mDownX = event.getX();
+                    mDownY = event.getY();
+                    mAssistant.preLoadOnTouch(urls);
+                }
+                break;
+            case MotionEvent.ACTION_MOVE:
+                if (mTouchedView == v) {
+                    int touchSlop = ViewConfiguration.get(v.getContext()).getScaledTouchSlop();
+                    if (Math.abs(event.getX() - mDownX) > touchSlop || Math.abs(event.getY() - mDownY) > touchSlop) {
+                        cancel();
+                    }
+                }
+                break;
+            case MotionEvent.ACTION_CANCEL:
+                // also sent when a scrolling parent takes over the gesture.
+                if (mTouchedView == v) {
+                    cancel();
+                }
+                break;
+            case MotionEvent.ACTION_UP:
+                // the click follows, and launches what was preloaded.
+                mTouchedView = null;
+                break;
+        }
+        return false;
+    }
+
+    /* ----- internals ----- */
+
+    private void cancel() {
+        mTouchedView = null;
+        mAssistant.cancelTouchPreload();
+    }
+}
@@ -0,0 +1,299 @@
+/*
+ * Copyright 2015 ctakesoft.com<hal1000@ctakesoft.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ctakesoft.ctassistant;
+
+import android.annotation.SuppressLint;
+import android.app.Activity;
+import android.content.Context;
+import android.content.ComponentCallbacks2;
+import android.content.MutableContextWrapper;
+import android.content.res.Configuration;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.MessageQueue;
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.view.ViewGroup;
+import android.webkit.WebSettings;
+import android.webkit.WebView;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * Opt-in pool of ready-made WebViews for the {@link AssistantWebViewActivity} fallback.
+ *
+ * Once enabled, the pool creates its WebViews while the main thread is idle, which also pays the
+ * WebView engine initialization ahead of time. The fallback activity borrows one instead of
+ * inflating a new WebView, and hands it back when it is destroyed. A used WebView is never lent
+ * again, since its back/forward list would leak the previous site to the next session: it is
+ * destroyed, and replaced while the main thread is idle.
+ *
+ * <p>When no Custom Tabs provider is installed, {@link Assistant#preLoad} loads the predicted
+ * url into an off-screen WebView instead, which the activity adopts if it is launched for that
+ * url. At most {@link #setMaxPrerenders(int)} pages are kept, each for
+ * {@link #PRERENDER_TTL_MILLIS}, and all of them are dropped when memory runs low.</p>
+ * All methods must be called on the main thread.
+ */
+public final class WebViewPool {
+    @SuppressWarnings("unused")
+    private static final String TAG = WebViewPool.class.getSimpleName();
+
+    /**
+     * How long a hidden preload stays usable.
+     */
+    public static final long PRERENDER_TTL_MILLIS = 60 * 1000;
+
+    private static class Prerender {
+        final WebView webView;
+        final long expiryTime;
+
+        Prerender(WebView webView, long expiryTime) {
+            this.webView = webView;
+            this.expiryTime = expiryTime;
+        }
+    }
+
+    private static Context sAppContext;
+    private static int sSize;
+    private static int sMaxPrerenders = 1;
+    private static boolean sFillScheduled;
+    private static final ArrayDeque<WebView> sIdle = new ArrayDeque<>();
+    // insertion ordered, oldest first.
+    private static final LinkedHashMap<String, Prerender> sPrerenders = new LinkedHashMap<>();
+    private static final Handler sHandler = new Handler(Looper.getMainLooper());
+
+    private static final Runnable sExpirer = new Runnable() {
+        @Override
+        public void run() {
+            expirePrerenders();
+        }
+    };
+
+    private static final ComponentCallbacks2 sMemoryCallbacks = new ComponentCallbacks2() {
+        @Override
+        public void onTrimMemory(int level) {
+            if (level >= TRIM_MEMORY_RUNNING_LOW) {
+                clearPrerenders();
+            }
+        }
+
+        @Override
+        public void onConfigurationChanged(Configuration newConfig) {
+        }
+
+        @Override
+        public void onLowMemory() {
+            clearPrerenders();
+        }
+    };
+
+    private static final MessageQueue.IdleHandler sFiller = new MessageQueue.IdleHandler() {
+        @Override
+        public boolean queueIdle() {
+            if (sAppContext == null || sIdle.size() >= sSize) {
+                sFillScheduled = false;
+                return false;
+            }
+            // one per idle slot, to keep each pause short.
+            sIdle.add(create(sAppContext));
+            sFillScheduled = sIdle.size() < sSize;
+            return sFillScheduled;
+        }
+    };
+
+    private WebViewPool() {}
+
+    /**
+     * Enables the pool.
+     *
+     * @param context Any context, only its application context is kept.
+     * @param size How many idle WebViews to keep ready.
+     */
+    public static void enable(@NonNull Context context, int size) {
+        if (sAppContext == null) {
+            context.getApplicationContext().registerComponentCallbacks(sMemoryCallbacks);
+        }
+        sAppContext = context.getApplicationContext();
+        sSize = Math.max(1, size);
+        trim();
+        scheduleFill();
+    }
+
+    /**
+     * Disables the pool and destroys the idle and preloaded WebViews.
+     */
+    public static void disable() {
+        if (sAppContext != null) {
+            sAppContext.unregisterComponentCallbacks(sMemoryCallbacks);
+        }
+        sSize = 0;
+        trim();
+        clearPrerenders();
+        sAppContext = null;
+    }
+
+    /**
+     * Sets how many pages may be preloaded off-screen at once, 1 by default.
+     *
+     * @param maxPrerenders 0 disables the hidden preload.
+     */
+    public static void setMaxPrerenders(int maxPrerenders) {
+        sMaxPrerenders = Math.max(0, maxPrerenders);
+        evictPrerenders(sMaxPrerenders);
+    }
+
+    /**
+     * Loads the url into an off-screen WebView, unless it is already loaded or the pool is
+     * disabled. The oldest preload is dropped if there are too many.
+     *
+     * @return Whether the url is being loaded off-screen.
+     */
+    static boolean prerender(@NonNull String url) {
+        if (sAppContext == null || sMaxPrerenders == 0) {
+            return false;
+        }
+        Prerender prerender = sPrerenders.get(url);
+        if (prerender != null && prerender.expiryTime > SystemClock.uptimeMillis()) {
+            return true;
+        }
+        if (prerender != null) {
+            sPrerenders.remove(url).webView.destroy();
+        }
+        evictPrerenders(sMaxPrerenders - 1);
+
+        WebView webView = sIdle.poll();
+        if (webView == null) {
+            webView = create(sAppContext);
+        }
+        webView.loadUrl(url);
+        sPrerenders.put(url, new Prerender(webView, SystemClock.uptimeMillis() + PRERENDER_TTL_MILLIS));
+        sHandler.removeCallbacks(sExpirer);
+        sHandler.postDelayed(sExpirer, PRERENDER_TTL_MILLIS);
+        scheduleFill();
+        return true;
+    }
+
+    /**
+     * @return The WebView preloaded with the url, attached to the activity, or null if there is
+     *         none or it has expired.
+     */
+    @Nullable
+    static WebView acquirePrerendered(@NonNull Activity activity, @NonNull String url) {
+        Prerender prerender = sPrerenders.remove(url);
+        if (prerender == null) {
+            return null;
+        }
+        if (prerender.expiryTime <= SystemClock.uptimeMillis()) {
+            prerender.webView.destroy();
+            return null;
+        }
+        ((MutableContextWrapper) prerender.webView.getContext()).setBaseContext(activity);
+        return prerender.webView;
+    }
+
+    /**
+     * @return An idle WebView attached to the activity, or null if the pool is empty or disabled.
+     */
+    @Nullable
+    static WebView acquire(@NonNull Activity activity) {
+        WebView webView = sIdle.poll();
+        if (webView == null) {
+            return null;
+        }
+        ((MutableContextWrapper) webView.getContext()).setBaseContext(activity);
+        scheduleFill();
+        return webView;
+    }
+
+    /**
+     * Hands back a WebView given by {@link #acquire} or {@link #acquirePrerendered}. It is
+     * destroyed, and the pool makes a fresh one when the main thread is idle.
+     */
+    static void release(@NonNull WebView webView) {
+        ViewGroup parent = (ViewGroup) webView.getParent();
+        if (parent != null) {
+            parent.removeView(webView);
+        }
+        // loading about:blank is asynchronous, clearHistory() would still keep the current page.
+        webView.destroy();
+        scheduleFill();
+    }
+
+    /**
+     * Applies the settings used by the fallback activity.
+     */
+    @SuppressLint("SetJavaScriptEnabled")
+    static void configure(@NonNull WebView webView) {
+        webView.setWebViewClient(new CachingWebViewClient());
+        WebSettings webSettings = webView.getSettings();
+        webSettings.setJavaScriptEnabled(true);
+    }
+
+    private static WebView create(Context appContext) {
+        WebView webView = new WebView(new MutableContextWrapper(appContext));
+        configure(webView);
+        return webView;
+    }
+
+    private static void scheduleFill() {
+        if (sFillScheduled || sAppContext == null || sIdle.size() >= sSize) {
+            return;
+        }
+        sFillScheduled = true;
+        Looper.myQueue().addIdleHandler(sFiller);
+    }
+
+    private static void expirePrerenders() {
+        long now = SystemClock.uptimeMillis();
+        long nextExpiry = Long.MAX_VALUE;
+        Iterator<Prerender> iterator = sPrerenders.values().iterator();
+        while (iterator.hasNext()) {
+            Prerender prerender = iterator.next();
+            if (prerender.expiryTime <= now) {
+                prerender.webView.destroy();
+                iterator.remove();
+            } else {
+                nextExpiry = Math.min(nextExpiry, prerender.expiryTime);
+            }
+        }
+        if (nextExpiry != Long.MAX_VALUE) {
+            sHandler.postDelayed(sExpirer, nextExpiry - now);
+        }
+    }
+
+    private static void evictPrerenders(int maxPrerenders) {
+        Iterator<Prerender> iterator = sPrerenders.values().iterator();
+        while (sPrerenders.size() > Math.max(0, maxPrerenders) && iterator.hasNext()) {
+            iterator.next().webView.destroy();
+            iterator.remove();
+        }
+    }
+
+    private static void clearPrerenders() {
+        sHandler.removeCallbacks(sExpirer);
+        evictPrerenders(0);
+    }
+
+    private static void trim() {
+        while (sIdle.size() > sSize) {
+            sIdle.poll().destroy();
+        }
+    }
+}
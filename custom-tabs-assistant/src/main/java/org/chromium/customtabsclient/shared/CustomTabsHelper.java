@@ -20,11 +20,18 @@ import android.content.IntentFilter;
 import android.content.pm.PackageManager;
 import android.content.pm.ResolveInfo;
 import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
 import android.text.TextUtils;
 import android.util.Log;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 /**
  * Helper class for Custom Tabs.
@@ -40,7 +47,30 @@ public class CustomTabsHelper {
     private static final String ACTION_CUSTOM_TABS_CONNECTION =
             "android.support.customtabs.action.CustomTabsService";
 
-    private static String sPackageNameToUse;
+    private static final SingleFlight<String> sPackageNameToUse = new SingleFlight<>();
+    private static volatile String sPreferredPackageName;
+
+    private static final Handler sMainHandler = new Handler(Looper.getMainLooper());
+    private static final ExecutorService sResolveExecutor =
+            Executors.newSingleThreadExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, TAG);
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
+    /**
+     * Callback for {@link #getPackageNameToUseAsync(Context, OnPackageNameResolvedListener)}.
+     */
+    public interface OnPackageNameResolvedListener {
+        /**
+         * Called on the main thread when the resolution has finished.
+         * @param packageName The package name to use, or null if no provider is installed.
+         */
+        void onPackageNameResolved(String packageName);
+    }
 
     private CustomTabsHelper() {}
 
@@ -55,15 +85,31 @@ public class CustomTabsHelper {
      * the one chosen by the user if there is one, otherwise makes a best effort to return a
      * valid package name.
      *
-     * This is <strong>not</strong> threadsafe.
+     * The result is persisted and reused until the installed browsers change. The first call
+     * registers a {@link PackageChangedReceiver} for the rest of the process lifetime.
+     *
+     * This is threadsafe. Concurrent callers share a single scan, and once the result is known
+     * it is returned without locking.
      *
      * @param context {@link Context} to use for accessing {@link PackageManager}.
      * @return The package name recommended to use for connecting to custom tabs related components.
      */
-    public static String getPackageNameToUse(Context context) {
-        if (sPackageNameToUse != null) return sPackageNameToUse;
+    public static String getPackageNameToUse(final Context context) {
+        PackageChangedReceiver.register(context);
+        return sPackageNameToUse.get(new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                return resolvePackageNameToUse(context);
+            }
+        });
+    }
 
+    private static String resolvePackageNameToUse(Context context) {
         PackageManager pm = context.getPackageManager();
+        String preferredPackageName = sPreferredPackageName;
+        if (preferredPackageName != null && supportsCustomTabs(pm, preferredPackageName)) {
+            return preferredPackageName;
+        }
         // Get default VIEW intent handler.
         Intent activityIntent = new Intent(Intent.ACTION_VIEW, Uri.parse("http://www.example.com"));
         ResolveInfo defaultViewHandlerInfo = pm.resolveActivity(activityIntent, 0);
@@ -74,36 +120,161 @@ public class CustomTabsHelper {
 
         // Get all apps that can handle VIEW intents.
         List<ResolveInfo> resolvedActivityList = pm.queryIntentActivities(activityIntent, 0);
-        List<String> packagesSupportingCustomTabs = new ArrayList<>();
-        for (ResolveInfo info : resolvedActivityList) {
-            Intent serviceIntent = new Intent();
-            serviceIntent.setAction(ACTION_CUSTOM_TABS_CONNECTION);
-            serviceIntent.setPackage(info.activityInfo.packageName);
-            if (pm.resolveService(serviceIntent, 0) != null) {
-                packagesSupportingCustomTabs.add(info.activityInfo.packageName);
+
+        // Skip the per-package service lookups if the browser set is the one we resolved before.
+        String fingerprint = PackageNameCache.fingerprint(defaultViewHandlerPackageName, resolvedActivityList);
+        PackageNameCache cache = new PackageNameCache(context);
+        if (cache.contains(fingerprint)) {
+            String cachedPackageName = cache.getPackageName();
+            // the fingerprint has no versions: an update while the process was dead may have
+            // dropped the service.
+            if (cachedPackageName == null || supportsCustomTabs(pm, cachedPackageName)) {
+                return cachedPackageName;
             }
         }
 
+        List<String> packagesSupportingCustomTabs = filterCustomTabsPackages(pm, resolvedActivityList);
+
         // Now packagesSupportingCustomTabs contains all apps that can handle both VIEW intents
         // and service calls.
+        String packageNameToUse = null;
         if (packagesSupportingCustomTabs.isEmpty()) {
-            sPackageNameToUse = null;
+            packageNameToUse = null;
         } else if (packagesSupportingCustomTabs.size() == 1) {
-            sPackageNameToUse = packagesSupportingCustomTabs.get(0);
+            packageNameToUse = packagesSupportingCustomTabs.get(0);
         } else if (!TextUtils.isEmpty(defaultViewHandlerPackageName)
                 && !hasSpecializedHandlerIntents(context, activityIntent)
                 && packagesSupportingCustomTabs.contains(defaultViewHandlerPackageName)) {
-            sPackageNameToUse = defaultViewHandlerPackageName;
+            packageNameToUse = defaultViewHandlerPackageName;
         } else if (packagesSupportingCustomTabs.contains(STABLE_PACKAGE)) {
-            sPackageNameToUse = STABLE_PACKAGE;
+            packageNameToUse = STABLE_PACKAGE;
         } else if (packagesSupportingCustomTabs.contains(BETA_PACKAGE)) {
-            sPackageNameToUse = BETA_PACKAGE;
+            packageNameToUse = BETA_PACKAGE;
         } else if (packagesSupportingCustomTabs.contains(DEV_PACKAGE)) {
-            sPackageNameToUse = DEV_PACKAGE;
+            packageNameToUse = DEV_PACKAGE;
         } else if (packagesSupportingCustomTabs.contains(LOCAL_PACKAGE)) {
-            sPackageNameToUse = LOCAL_PACKAGE;
+            packageNameToUse = LOCAL_PACKAGE;
+        }
+        cache.put(fingerprint, packageNameToUse);
+        return packageNameToUse;
+    }
+
+    /**
+     * Goes through all apps that handle VIEW intents and have a warmup service.
+     * Runs {@link PackageManager} queries, avoid calling it on the main thread.
+     *
+     * @param context {@link Context} to use for accessing {@link PackageManager}.
+     * @return The package names of all installed Custom Tabs providers.
+     */
+    public static List<String> getCustomTabsPackages(Context context) {
+        PackageManager pm = context.getPackageManager();
+        Intent activityIntent = new Intent(Intent.ACTION_VIEW, Uri.parse("http://www.example.com"));
+        return filterCustomTabsPackages(pm, pm.queryIntentActivities(activityIntent, 0));
+    }
+
+    /**
+     * Makes {@link #getPackageNameToUse(Context)} return the given provider, for as long as it
+     * supports Custom Tabs, instead of the one picked by the fixed priority order.
+     *
+     * @param packageName The provider to use, or null to go back to the priority order.
+     */
+    public static void setPreferredPackageName(String packageName) {
+        if (TextUtils.equals(sPreferredPackageName, packageName)) {
+            return;
+        }
+        sPreferredPackageName = packageName;
+        sPackageNameToUse.invalidate();
+    }
+
+    private static List<String> filterCustomTabsPackages(PackageManager pm, List<ResolveInfo> viewHandlers) {
+        List<String> packagesSupportingCustomTabs = new ArrayList<>();
+        for (ResolveInfo info : viewHandlers) {
+            if (supportsCustomTabs(pm, info.activityInfo.packageName)) {
+                packagesSupportingCustomTabs.add(info.activityInfo.packageName);
+            }
         }
-        return sPackageNameToUse;
+        return packagesSupportingCustomTabs;
+    }
+
+    private static boolean supportsCustomTabs(PackageManager pm, String packageName) {
+        Intent serviceIntent = new Intent();
+        serviceIntent.setAction(ACTION_CUSTOM_TABS_CONNECTION);
+        serviceIntent.setPackage(packageName);
+        return pm.resolveService(serviceIntent, 0) != null;
+    }
+
+    /**
+     * Forgets the resolved package name, both in memory and on disk. Called when the set of
+     * installed apps changes.
+     *
+     * @param context {@link Context} to use for accessing the persisted entry.
+     */
+    public static void invalidatePackageNameToUse(Context context) {
+        sPackageNameToUse.invalidate();
+        new PackageNameCache(context).clear();
+    }
+
+    /**
+     * Forgets the package name resolved in memory only. The next resolution checks the persisted
+     * entry against the installed browsers.
+     */
+    static void onBrowserRemoved() {
+        sPackageNameToUse.invalidate();
+    }
+
+    /**
+     * Runs the task on the thread of the {@link PackageManager} queries, after any resolution in
+     * progress.
+     */
+    static void executeInBackground(Runnable task) {
+        sResolveExecutor.execute(task);
+    }
+
+    /**
+     * @return Whether the package handles http VIEW intents. Runs a {@link PackageManager} query,
+     *         avoid calling it on the main thread.
+     */
+    static boolean isBrowser(Context context, String packageName) {
+        Intent activityIntent = new Intent(Intent.ACTION_VIEW, Uri.parse("http://www.example.com"));
+        activityIntent.setPackage(packageName);
+        List<ResolveInfo> handlers = context.getPackageManager().queryIntentActivities(activityIntent, 0);
+        return handlers != null && !handlers.isEmpty();
+    }
+
+    /**
+     * Same as {@link #getPackageNameToUse(Context)}, but the {@link PackageManager} queries run on
+     * a background thread. The listener, if any, is called on the main thread.
+     *
+     * @param context {@link Context} to use for accessing {@link PackageManager}.
+     * @param listener Notified of the result, may be null.
+     * @return A {@link Future} holding the package name.
+     */
+    public static Future<String> getPackageNameToUseAsync(Context context,
+                                                          final OnPackageNameResolvedListener listener) {
+        final Context appContext = context.getApplicationContext();
+        return sResolveExecutor.submit(new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                final String packageName = getPackageNameToUse(appContext);
+                if (listener != null) {
+                    sMainHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            listener.onPackageNameResolved(packageName);
+                        }
+                    });
+                }
+                return packageName;
+            }
+        });
+    }
+
+    /**
+     * @return Whether {@link #getPackageNameToUse(Context)} can answer without any
+     *         {@link PackageManager} call.
+     */
+    public static boolean isPackageNameResolved() {
+        return sPackageNameToUse.isDone();
     }
 
     /**
@@ -0,0 +1,84 @@
+/*
+ * Copyright 2015 ctakesoft.com<hal1000@ctakesoft.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.chromium.customtabsclient.shared;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.net.Uri;
+
+/**
+ * Drops the resolved Custom Tabs provider when a browser is installed, removed or changed, since
+ * any of these may change which browser should be used. Registered at runtime by
+ * {@link CustomTabsHelper} while the process is alive, so that package changes never start the
+ * host app.
+ */
+public class PackageChangedReceiver extends BroadcastReceiver {
+    private static boolean sRegistered;
+
+    /**
+     * Registers the receiver for the rest of the process lifetime, once.
+     */
+    static synchronized void register(Context context) {
+        if (sRegistered) {
+            return;
+        }
+        sRegistered = true;
+        IntentFilter filter = new IntentFilter();
+        filter.addAction(Intent.ACTION_PACKAGE_ADDED);
+        filter.addAction(Intent.ACTION_PACKAGE_REMOVED);
+        filter.addAction(Intent.ACTION_PACKAGE_CHANGED);
+        filter.addAction(Intent.ACTION_PACKAGE_REPLACED);
+        filter.addDataScheme("package");
+        context.getApplicationContext().registerReceiver(new PackageChangedReceiver(), filter);
+    }
+
+    @Override
+    public void onReceive(Context context, Intent intent) {
+        Uri data = intent.getData();
+        final String packageName = data != null ? data.getSchemeSpecificPart() : null;
+        if (packageName == null) {
+            return;
+        }
+        if (Intent.ACTION_PACKAGE_REMOVED.equals(intent.getAction())) {
+            if (!intent.getBooleanExtra(Intent.EXTRA_REPLACING, false)) {
+                // the package can't be queried any more. The persisted entry stays, its
+                // fingerprint tells whether the browser set has changed.
+                CustomTabsHelper.onBrowserRemoved();
+            }
+            return;
+        }
+        final Context appContext = context.getApplicationContext();
+        final PendingResult result = goAsync();
+        // no PackageManager call on the main thread.
+        CustomTabsHelper.executeInBackground(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    if (CustomTabsHelper.isBrowser(appContext, packageName)) {
+                        // an update may add or drop Custom Tabs support, which the fingerprint
+                        // does not cover.
+                        CustomTabsHelper.invalidatePackageNameToUse(appContext);
+                    }
+                } finally {
+                    result.finish();
+                }
+            }
+        });
+    }
+}
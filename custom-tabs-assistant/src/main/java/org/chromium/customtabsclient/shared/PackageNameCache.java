@@ -0,0 +1,87 @@
+/*
+ * Copyright 2015 ctakesoft.com<hal1000@ctakesoft.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.chromium.customtabsclient.shared;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.content.pm.ResolveInfo;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Persists the Custom Tabs provider chosen by {@link CustomTabsHelper} across process starts.
+ *
+ * The entry is keyed by a fingerprint of the installed VIEW handlers and the default handler, so
+ * a cached package name is only returned while the browser set it was computed from is unchanged.
+ */
+class PackageNameCache {
+    private static final String PREFS_NAME = "org.chromium.customtabsclient.shared.PackageNameCache";
+    private static final String KEY_FINGERPRINT = "fingerprint";
+    private static final String KEY_PACKAGE_NAME = "package_name";
+
+    private final SharedPreferences mPrefs;
+
+    PackageNameCache(Context context) {
+        mPrefs = context.getApplicationContext().getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    /**
+     * @param defaultViewHandlerPackageName The default VIEW handler, may be null.
+     * @param viewHandlers All apps that can handle VIEW intents.
+     * @return A string identifying the current set of browsers.
+     */
+    static String fingerprint(String defaultViewHandlerPackageName, List<ResolveInfo> viewHandlers) {
+        List<String> packageNames = new ArrayList<>();
+        for (ResolveInfo info : viewHandlers) {
+            packageNames.add(info.activityInfo.packageName);
+        }
+        Collections.sort(packageNames);
+        StringBuilder sb = new StringBuilder();
+        sb.append(defaultViewHandlerPackageName);
+        for (String packageName : packageNames) {
+            sb.append('|').append(packageName);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @return Whether there is an entry computed for the given fingerprint.
+     */
+    boolean contains(String fingerprint) {
+        return fingerprint.equals(mPrefs.getString(KEY_FINGERPRINT, null));
+    }
+
+    /**
+     * @return The cached package name, or null if there is no provider.
+     */
+    String getPackageName() {
+        return mPrefs.getString(KEY_PACKAGE_NAME, null);
+    }
+
+    void put(String fingerprint, String packageName) {
+        mPrefs.edit()
+                .putString(KEY_FINGERPRINT, fingerprint)
+                .putString(KEY_PACKAGE_NAME, packageName)
+                .apply();
+    }
+
+    void clear() {
+        mPrefs.edit().clear().apply();
+    }
+}
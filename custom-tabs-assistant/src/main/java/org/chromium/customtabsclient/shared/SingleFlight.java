@@ -0,0 +1,138 @@
+/*
+ * Copyright 2015 ctakesoft.com<hal1000@ctakesoft.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.chromium.customtabsclient.shared;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Lazily computed value where concurrent callers share a single computation.
+ *
+ * Once the value is known, {@link #get(Callable)} is a pair of volatile reads. Until then the
+ * first caller runs its loader and every other caller waits for that same run.
+ * {@link #invalidate()} discards the value, and the result of a computation that was in flight
+ * at that time is never published.
+ *
+ * @param <T> Type of the value, may be null.
+ */
+class SingleFlight<T> {
+    private static class Value<T> {
+        final int generation;
+        final T value;
+
+        Value(int generation, T value) {
+            this.generation = generation;
+            this.value = value;
+        }
+    }
+
+    private final AtomicInteger mGeneration = new AtomicInteger();
+    private final AtomicReference<Value<T>> mValue = new AtomicReference<>();
+    private final AtomicReference<FutureTask<T>> mInFlight = new AtomicReference<>();
+
+    /**
+     * @return Whether the value is known, i.e. {@link #get(Callable)} will not run a loader.
+     */
+    boolean isDone() {
+        Value<T> value = mValue.get();
+        return value != null && value.generation == mGeneration.get();
+    }
+
+    /**
+     * Returns the value, computing it with the given loader if no other caller is doing so.
+     *
+     * @param loader Computes the value. Only called if this caller wins the race.
+     * @return The value.
+     */
+    T get(final Callable<T> loader) {
+        Value<T> value = mValue.get();
+        if (value != null && value.generation == mGeneration.get()) {
+            return value.value;
+        }
+
+        FutureTask<T> task;
+        while (true) {
+            task = mInFlight.get();
+            if (task != null) {
+                break;
+            }
+            final int generation = mGeneration.get();
+            value = mValue.get();
+            if (value != null && value.generation == generation) {
+                // published by a run that completed after the fast path, and is no longer in flight.
+                return value.value;
+            }
+            FutureTask<T> newTask = new FutureTask<>(new Callable<T>() {
+                @Override
+                public T call() throws Exception {
+                    Value<T> published = mValue.get();
+                    if (published != null && published.generation == generation) {
+                        // a run that was in flight when we checked has published and finished
+                        // since, just before we took its place.
+                        return published.value;
+                    }
+                    T result = loader.call();
+                    if (mGeneration.get() == generation) {
+                        mValue.set(new Value<>(generation, result));
+                    }
+                    return result;
+                }
+            });
+            if (mInFlight.compareAndSet(null, newTask)) {
+                newTask.run();
+                mInFlight.compareAndSet(newTask, null);
+                task = newTask;
+                break;
+            }
+        }
+        return await(task);
+    }
+
+    /**
+     * Discards the value. The next {@link #get(Callable)} computes it again.
+     */
+    void invalidate() {
+        mGeneration.incrementAndGet();
+        mValue.set(null);
+        mInFlight.set(null);
+    }
+
+    private static <T> T await(FutureTask<T> task) {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return task.get();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+                    if (cause instanceof Error) throw (Error) cause;
+                    throw new RuntimeException(cause);
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
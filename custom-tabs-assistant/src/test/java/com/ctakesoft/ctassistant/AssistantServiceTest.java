@@ -0,0 +1,193 @@
+package com.ctakesoft.ctassistant;
+
+import android.app.Activity;
+import android.support.customtabs.CustomTabsCallback;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21, shadows = ShadowDelayedBindContextImpl.class)
+public class AssistantServiceTest {
+    private static final String CHROME = "com.android.chrome";
+    private static final List<String> URLS = Arrays.asList("https://example.com/a", "https://example.com/b");
+
+    private static class RecordingCallback implements ConnectionCallback {
+        int connected;
+        int disconnected;
+        int failed;
+
+        @Override
+        public void onConnected() {
+            connected++;
+        }
+
+        @Override
+        public void onDisconnected() {
+            disconnected++;
+        }
+
+        @Override
+        public void onFailed() {
+            failed++;
+        }
+    }
+
+    private final FakeBrowserCatalogue mBrowsers = new FakeBrowserCatalogue();
+    private final RecordingCallback mCallback = new RecordingCallback();
+    private Assistant mAssistant;
+
+    @Before
+    public void setUp() throws Exception {
+        mBrowsers.reset();
+        Activity activity = Robolectric.setupActivity(Activity.class);
+        mAssistant = new Assistant(activity, mCallback);
+        // the budget depends on the simulated network and on the other tests.
+        mAssistant.setAdaptivePrefetchEnabled(false);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mAssistant.disConnect();
+        mAssistant.destroy();
+    }
+
+    @Test
+    public void connectWarmsUpAndOpensSession() throws Exception {
+        FakeCustomTabsService chrome = mBrowsers.install(CHROME);
+
+        mAssistant.connect();
+        assertEquals(0, mCallback.connected);
+        mBrowsers.idle();
+
+        assertEquals(1, mCallback.connected);
+        assertEquals(1, chrome.getWarmupCount());
+        assertEquals(1, chrome.getSessions().size());
+    }
+
+    @Test
+    public void predictionsSentBeforeTheBindAreReplayed() throws Exception {
+        FakeCustomTabsService chrome = mBrowsers.install(CHROME);
+
+        mAssistant.connect();
+        mAssistant.preLoad(URLS);
+        mBrowsers.idle();
+
+        assertEquals(Arrays.asList(URLS), chrome.getMayLaunchUrls());
+    }
+
+    @Test
+    public void predictionsWaitForASlowBind() throws Exception {
+        FakeCustomTabsService chrome = mBrowsers.install(CHROME);
+        mBrowsers.setBindDelay(500);
+
+        mAssistant.connect();
+        mAssistant.preLoad(URLS);
+        mBrowsers.idle();
+        assertEquals(0, mCallback.connected);
+        assertEquals(0, chrome.getWarmupCount());
+
+        mBrowsers.advance(500);
+        mBrowsers.idle();
+        assertEquals(1, mCallback.connected);
+        assertEquals(1, chrome.getWarmupCount());
+        assertEquals(Arrays.asList(URLS), chrome.getMayLaunchUrls());
+    }
+
+    @Test
+    public void noProviderFails() throws Exception {
+        mBrowsers.installWithoutCustomTabs("com.example.browser");
+
+        mAssistant.connect();
+        mBrowsers.idle();
+
+        assertEquals(0, mCallback.connected);
+        assertEquals(1, mCallback.failed);
+    }
+
+    @Test
+    public void rebindsAfterProcessDeath() throws Exception {
+        FakeCustomTabsService chrome = mBrowsers.install(CHROME);
+        mAssistant.connect();
+        mAssistant.preLoad(URLS);
+        mBrowsers.idle();
+
+        mBrowsers.killProcess(CHROME);
+        mBrowsers.idle();
+        assertEquals(1, mCallback.disconnected);
+
+        mBrowsers.advance(ReconnectPolicy.DEFAULT.getDelay(0));
+        mBrowsers.idle();
+        assertEquals(2, mCallback.connected);
+        // warmed up again, and the predictions sent to the new process.
+        assertEquals(2, chrome.getWarmupCount());
+        assertEquals(Arrays.asList(URLS, URLS), chrome.getMayLaunchUrls());
+    }
+
+    @Test
+    public void warmupFailureIsRetriedOnNextBind() throws Exception {
+        FakeCustomTabsService chrome = mBrowsers.install(CHROME);
+        chrome.setWarmupResult(false);
+        mAssistant.connect();
+        mBrowsers.idle();
+
+        ConnectionPool.getInstance(RuntimeEnvironment.application).setGracePeriod(0);
+        mAssistant.disConnect();
+        chrome.setWarmupResult(true);
+        mAssistant.connect();
+        mBrowsers.idle();
+
+        assertEquals(2, chrome.getWarmupCount());
+    }
+
+    @Test
+    public void rebindAfterGracePeriodWarmsUpAgain() throws Exception {
+        FakeCustomTabsService chrome = mBrowsers.install(CHROME);
+        mAssistant.connect();
+        mBrowsers.idle();
+
+        // unbound by us: the browser may be killed without a disconnect ever being reported.
+        mAssistant.disConnect();
+        mBrowsers.advance(ConnectionPool.DEFAULT_GRACE_PERIOD_MILLIS);
+        mAssistant.connect();
+        mBrowsers.idle();
+
+        assertEquals(2, mCallback.connected);
+        assertEquals(2, chrome.getWarmupCount());
+    }
+
+    @Test
+    public void navigationEventsCompleteTheLaunchRecord() throws Exception {
+        FakeCustomTabsService chrome = mBrowsers.install(CHROME);
+        mAssistant.connect();
+        mAssistant.preLoad(URLS);
+        mBrowsers.idle();
+
+        mAssistant.launch(mAssistant.createIntentBuilder().build(), URLS.get(0));
+        chrome.sendNavigationEvent(CustomTabsCallback.NAVIGATION_STARTED);
+        chrome.sendNavigationEvent(CustomTabsCallback.NAVIGATION_FINISHED);
+        mBrowsers.idle();
+        // still open until the tab is hidden.
+        assertTrue(mAssistant.getNavigationMetrics().getRecentRecords().isEmpty());
+
+        chrome.sendNavigationEvent(CustomTabsCallback.TAB_HIDDEN);
+        mBrowsers.idle();
+
+        List<NavigationMetrics.Record> records = mAssistant.getNavigationMetrics().getRecentRecords();
+        assertEquals(1, records.size());
+        assertEquals(URLS.get(0), records.get(0).getUrl());
+        assertTrue(records.get(0).isPreloaded());
+        assertEquals(NavigationMetrics.Record.OUTCOME_FINISHED, records.get(0).getOutcome());
+    }
+}
@@ -0,0 +1,273 @@
+package com.ctakesoft.ctassistant;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs {@link DiskResponseCache} against a local HTTP server.
+ */
+public class DiskResponseCacheTest {
+    private static final String ETAG = "\"v1\"";
+
+    private HttpServer mServer;
+    private File mDirectory;
+    private final AtomicInteger mFullResponses = new AtomicInteger();
+    private final AtomicInteger mNotModifiedResponses = new AtomicInteger();
+
+    @Before
+    public void setUp() throws Exception {
+        mDirectory = File.createTempFile("DiskResponseCacheTest", "");
+        mDirectory.delete();
+        mServer = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        mServer.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                String path = exchange.getRequestURI().getPath();
+                if (ETAG.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                    mNotModifiedResponses.incrementAndGet();
+                    exchange.sendResponseHeaders(304, -1);
+                    exchange.close();
+                    return;
+                }
+                String userAgent = exchange.getRequestHeaders().getFirst("User-Agent");
+                byte[] body = ("<html>" + path + (path.startsWith("/ua") ? " " + userAgent : "")
+                        + "</html>").getBytes("UTF-8");
+                if (path.startsWith("/big")) {
+                    body = new byte[600];
+                }
+                exchange.getResponseHeaders().add("Content-Type", "text/html; charset=UTF-8");
+                exchange.getResponseHeaders().add("ETag", ETAG);
+                exchange.getResponseHeaders().add("Access-Control-Allow-Origin", "*");
+                if (path.startsWith("/nostore")) {
+                    exchange.getResponseHeaders().add("Cache-Control", "no-store");
+                } else if (path.startsWith("/private")) {
+                    exchange.getResponseHeaders().add("Cache-Control", "private, max-age=60");
+                } else if (path.startsWith("/cookie")) {
+                    exchange.getResponseHeaders().add("Set-Cookie", "session=1");
+                } else if (path.startsWith("/vary")) {
+                    exchange.getResponseHeaders().add("Vary", "User-Agent");
+                }
+                mFullResponses.incrementAndGet();
+                exchange.sendResponseHeaders(path.startsWith("/missing") ? 404 : 200, body.length);
+                OutputStream out = exchange.getResponseBody();
+                out.write(body);
+                out.close();
+            }
+        });
+        mServer.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mServer.stop(0);
+        File[] files = mDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        mDirectory.delete();
+    }
+
+    private String url(String path) {
+        return "http://127.0.0.1:" + mServer.getAddress().getPort() + path;
+    }
+
+    @Test
+    public void storesAndServesResponse() throws Exception {
+        DiskResponseCache cache = new DiskResponseCache(mDirectory, 1024 * 1024);
+
+        DiskResponseCache.Response response = cache.fetch(url("/terms"), null, null);
+
+        assertNotNull(response.entry);
+        assertEquals(200, response.statusCode);
+        assertEquals("text/html", response.mimeType);
+        assertEquals("UTF-8", response.encoding);
+        assertEquals("<html>/terms</html>", read(response.body));
+        assertEquals("<html>/terms</html>", read(cache.get(url("/terms"))));
+    }
+
+    @Test
+    public void revalidatesWithEtag() throws Exception {
+        DiskResponseCache cache = new DiskResponseCache(mDirectory, 1024 * 1024);
+        fetch(cache, "/help");
+
+        DiskResponseCache.Response response = cache.fetch(url("/help"), null, null);
+
+        assertEquals(1, mFullResponses.get());
+        assertEquals(1, mNotModifiedResponses.get());
+        assertEquals(200, response.statusCode);
+        assertEquals("<html>/help</html>", read(response.body));
+    }
+
+    @Test
+    public void survivesRestart() throws Exception {
+        fetch(new DiskResponseCache(mDirectory, 1024 * 1024), "/help");
+
+        DiskResponseCache cache = new DiskResponseCache(mDirectory, 1024 * 1024);
+
+        assertEquals("<html>/help</html>", read(cache.get(url("/help"))));
+    }
+
+    @Test
+    public void storesResponseHeaders() throws Exception {
+        DiskResponseCache cache = new DiskResponseCache(mDirectory, 1024 * 1024);
+        fetch(cache, "/font");
+
+        // the 304 does not repeat them.
+        DiskResponseCache.Response response = cache.fetch(url("/font"), null, null);
+        response.body.close();
+        assertEquals(1, mNotModifiedResponses.get());
+        assertEquals("*", response.headers.get("Access-Control-Allow-Origin"));
+
+        DiskResponseCache.Entry entry = new DiskResponseCache(mDirectory, 1024 * 1024).get(url("/font"));
+        assertEquals("*", entry.headers.get("Access-Control-Allow-Origin"));
+        assertEquals(ETAG, entry.headers.get("ETag"));
+    }
+
+    @Test
+    public void servesCachedCopyWhenOffline() throws Exception {
+        DiskResponseCache cache = new DiskResponseCache(mDirectory, 1024 * 1024);
+        fetch(cache, "/help");
+        mServer.stop(0);
+
+        try {
+            cache.fetch(url("/help"), null, null);
+            fail("server is down");
+        } catch (IOException expected) {
+            // offline
+        }
+        assertEquals("<html>/help</html>", read(cache.get(url("/help"))));
+    }
+
+    @Test
+    public void passesThroughResponsesItDoesNotStore() throws Exception {
+        DiskResponseCache cache = new DiskResponseCache(mDirectory, 1024 * 1024);
+
+        for (String path : new String[] {"/nostore", "/private", "/cookie", "/vary"}) {
+            DiskResponseCache.Response response = cache.fetch(url(path), null, null);
+
+            assertNull(path, response.entry);
+            assertEquals(200, response.statusCode);
+            assertEquals("<html>" + path + "</html>", read(response.body));
+            assertNull(path, cache.get(url(path)));
+        }
+    }
+
+    @Test
+    public void passesThroughErrors() throws Exception {
+        DiskResponseCache cache = new DiskResponseCache(mDirectory, 1024 * 1024);
+
+        DiskResponseCache.Response response = cache.fetch(url("/missing"), null, null);
+
+        assertEquals(404, response.statusCode);
+        assertEquals("<html>/missing</html>", read(response.body));
+        assertNull(cache.get(url("/missing")));
+    }
+
+    @Test
+    public void forwardsRequestHeaders() throws Exception {
+        DiskResponseCache cache = new DiskResponseCache(mDirectory, 1024 * 1024);
+
+        DiskResponseCache.Response response = cache.fetch(url("/ua"),
+                Collections.singletonMap("User-Agent", "TestBrowser/1.0"), null);
+
+        assertEquals("<html>/ua TestBrowser/1.0</html>", read(response.body));
+    }
+
+    @Test
+    public void servesTooLargeResponseWithoutStoringIt() throws Exception {
+        DiskResponseCache cache = new DiskResponseCache(mDirectory, 100);
+
+        DiskResponseCache.Response response = cache.fetch(url("/big"), null, null);
+
+        assertNull(response.entry);
+        assertEquals(600, read(response.body).length());
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void concurrentFetchesOfSameUrlDoNotCorruptTheEntry() throws Exception {
+        final DiskResponseCache cache = new DiskResponseCache(mDirectory, 1024 * 1024);
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        cache.fetch(url("/shared"), null, null).body.close();
+                    } catch (IOException e) {
+                        throw new AssertionError(e);
+                    }
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals("<html>/shared</html>", read(new DiskResponseCache(mDirectory, 1024 * 1024)
+                .get(url("/shared"))));
+        // a body and a meta file, no temporary file left.
+        assertEquals(2, mDirectory.list().length);
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsed() throws Exception {
+        DiskResponseCache cache = new DiskResponseCache(mDirectory, 1000);
+        fetch(cache, "/big1");
+        cache.get(url("/big1"));
+        fetch(cache, "/big2");
+
+        assertNull(cache.get(url("/big1")));
+        assertNotNull(cache.get(url("/big2")));
+        assertEquals(600, cache.size());
+    }
+
+    @Test
+    public void parsesContentType() throws Exception {
+        String[] contentType = DiskResponseCache.parseContentType("Text/CSS; charset=\"utf-8\"");
+
+        assertEquals("text/css", contentType[0]);
+        assertEquals("utf-8", contentType[1]);
+    }
+
+    private void fetch(DiskResponseCache cache, String path) throws IOException {
+        cache.fetch(url(path), null, null).body.close();
+    }
+
+    private static String read(DiskResponseCache.Entry entry) throws IOException {
+        return read(entry.open());
+    }
+
+    private static String read(InputStream in) throws IOException {
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[1024];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return out.toString("UTF-8");
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,185 @@
+package com.ctakesoft.ctassistant;
+
+import android.content.ComponentName;
+import android.content.Intent;
+import android.content.ServiceConnection;
+import android.content.pm.ActivityInfo;
+import android.content.pm.ResolveInfo;
+import android.content.pm.ServiceInfo;
+import android.net.Uri;
+import android.support.customtabs.CustomTabsService;
+
+import org.chromium.customtabsclient.shared.CustomTabsHelper;
+import org.robolectric.Robolectric;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.Shadows;
+import org.robolectric.res.builder.RobolectricPackageManager;
+import org.robolectric.shadows.ShadowApplication;
+import org.robolectric.shadows.ShadowLooper;
+import org.robolectric.util.Scheduler;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The browsers installed on the Robolectric device: VIEW handlers in the PackageManager and,
+ * for Custom Tabs providers, a {@link FakeCustomTabsService} that binds in process.
+ * Call {@link #reset()} before each test, the library keeps process-wide state.
+ * <p>
+ * As on a device, service connections and results posted to the main thread arrive later: only
+ * when the test calls {@link #idle()} or {@link #advance(long)}. Whatever the test does before
+ * that happens while the bind is still in flight.
+ */
+public class FakeBrowserCatalogue {
+    // the VIEW intent CustomTabsHelper resolves the browsers with.
+    private static final Intent VIEW_INTENT = new Intent(Intent.ACTION_VIEW, Uri.parse("http://www.example.com"));
+
+    // browsers in resolution order, the first is the default VIEW handler.
+    private final Map<String, FakeCustomTabsService> mBrowsers = new LinkedHashMap<>();
+
+    /**
+     * Clears the library's process-wide state: the bound provider, the resolved package name and
+     * the binder worker. Holds the main thread tasks until {@link #idle()}.
+     */
+    public void reset() {
+        ConnectionPool.resetForTesting();
+        BinderWorker.resetForTesting();
+        ShadowDelayedBindContextImpl.reset();
+        CustomTabsHelper.setPreferredPackageName(null);
+        CustomTabsHelper.invalidatePackageNameToUse(RuntimeEnvironment.application);
+        ShadowLooper.pauseMainLooper();
+    }
+
+    /**
+     * Runs what was posted to the main thread and to the binder worker until both are idle:
+     * pending service connections, binder calls and their results, and navigation events.
+     * Robolectric never runs the worker's tasks by itself, they were posted from the main thread,
+     * and it stamps them with the main thread clock.
+     */
+    public void idle() {
+        Scheduler worker = Shadows.shadowOf(BinderWorker.getLooperForTesting()).getScheduler();
+        Scheduler main = Robolectric.getForegroundThreadScheduler();
+        do {
+            worker.advanceTo(main.getCurrentTime());
+            ShadowLooper.runUiThreadTasks();
+        } while (worker.areAnyRunnable() || main.areAnyRunnable());
+    }
+
+    /**
+     * Moves the main thread clock, running the delayed tasks that become due, such as the
+     * reconnect backoff or the pending launch timeout, and what they post.
+     */
+    public void advance(long millis) {
+        ShadowLooper.idleMainLooper(millis);
+        idle();
+    }
+
+    /**
+     * Installs a browser with a Custom Tabs service, after the ones already installed.
+     *
+     * @return The service the library binds to for this package.
+     */
+    public FakeCustomTabsService install(String packageName) {
+        FakeCustomTabsService service = Robolectric.setupService(FakeCustomTabsService.class);
+        Intent serviceIntent = serviceIntent(packageName);
+        ResolveInfo serviceInfo = new ResolveInfo();
+        serviceInfo.serviceInfo = new ServiceInfo();
+        serviceInfo.serviceInfo.packageName = packageName;
+        serviceInfo.serviceInfo.name = FakeCustomTabsService.class.getName();
+        getPackageManager().addResolveInfoForIntent(serviceIntent, serviceInfo);
+        ShadowApplication.getInstance().setComponentNameAndServiceForBindServiceForIntent(serviceIntent,
+                new ComponentName(packageName, FakeCustomTabsService.class.getName()), service.onBind(serviceIntent));
+        addBrowser(packageName, service);
+        return service;
+    }
+
+    /**
+     * Installs a browser that only handles VIEW intents.
+     */
+    public void installWithoutCustomTabs(String packageName) {
+        addBrowser(packageName, null);
+    }
+
+    /**
+     * Makes the browser the default VIEW handler.
+     */
+    public void setDefault(String packageName) {
+        Map<String, FakeCustomTabsService> browsers = new LinkedHashMap<>();
+        browsers.put(packageName, mBrowsers.get(packageName));
+        browsers.putAll(mBrowsers);
+        mBrowsers.clear();
+        mBrowsers.putAll(browsers);
+        publishViewHandlers();
+    }
+
+    /**
+     * Delays the service connection of the next binds, as when the browser process is cold.
+     * The connection arrives once {@link #advance(long)} has moved the clock past the delay.
+     * Needs {@link ShadowDelayedBindContextImpl} in the test's {@code @Config} shadows.
+     */
+    public void setBindDelay(long millis) {
+        ShadowDelayedBindContextImpl.setBindDelay(millis);
+    }
+
+    /**
+     * Makes every Custom Tabs bind fail, as when the browser is disabled.
+     */
+    public void failBinds() {
+        ShadowApplication.getInstance().declareActionUnbindable(CustomTabsService.ACTION_CUSTOM_TABS_CONNECTION);
+    }
+
+    /**
+     * Kills the browser process: its live bindings are disconnected and its sessions are lost.
+     * The tests bind a single provider at a time, so every live binding is disconnected.
+     */
+    public void killProcess(String packageName) {
+        FakeCustomTabsService service = mBrowsers.get(packageName);
+        if (service == null) {
+            throw new IllegalArgumentException(packageName + " has no Custom Tabs service");
+        }
+        service.onProcessDied();
+        ShadowApplication application = ShadowApplication.getInstance();
+        List<ServiceConnection> connections = new ArrayList<>(application.getBoundServiceConnections());
+        connections.removeAll(application.getUnboundServiceConnections());
+        ComponentName name = new ComponentName(packageName, FakeCustomTabsService.class.getName());
+        for (ServiceConnection connection : connections) {
+            connection.onServiceDisconnected(name);
+        }
+    }
+
+    /* ----- internals ----- */
+
+    private void addBrowser(String packageName, FakeCustomTabsService service) {
+        getPackageManager().addPackage(packageName);
+        mBrowsers.put(packageName, service);
+        publishViewHandlers();
+    }
+
+    private void publishViewHandlers() {
+        RobolectricPackageManager pm = getPackageManager();
+        for (String packageName : mBrowsers.keySet()) {
+            pm.removeResolveInfosForIntent(VIEW_INTENT, packageName);
+        }
+        for (String packageName : mBrowsers.keySet()) {
+            ResolveInfo info = new ResolveInfo();
+            info.activityInfo = new ActivityInfo();
+            info.activityInfo.packageName = packageName;
+            info.activityInfo.name = packageName + ".BrowserActivity";
+            pm.addResolveInfoForIntent(VIEW_INTENT, info);
+        }
+        // the set of browsers has changed, resolve it now so that connect() binds synchronously.
+        CustomTabsHelper.invalidatePackageNameToUse(RuntimeEnvironment.application);
+        CustomTabsHelper.getPackageNameToUse(RuntimeEnvironment.application);
+    }
+
+    private static Intent serviceIntent(String packageName) {
+        // the intent CustomTabsClient binds with.
+        return new Intent(CustomTabsService.ACTION_CUSTOM_TABS_CONNECTION).setPackage(packageName);
+    }
+
+    private static RobolectricPackageManager getPackageManager() {
+        return RuntimeEnvironment.getRobolectricPackageManager();
+    }
+}
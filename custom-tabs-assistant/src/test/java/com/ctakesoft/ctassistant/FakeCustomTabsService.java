@@ -0,0 +1,109 @@
+package com.ctakesoft.ctassistant;
+
+import android.net.Uri;
+import android.os.Bundle;
+import android.support.customtabs.CustomTabsService;
+import android.support.customtabs.CustomTabsSessionToken;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * In-process stand-in for a browser's Custom Tabs service. Records every call made through the
+ * binder, answers with scripted results, and sends navigation events back to the sessions.
+ * Installed and bound with {@link FakeBrowserCatalogue}.
+ */
+public class FakeCustomTabsService extends CustomTabsService {
+    private final List<CustomTabsSessionToken> mSessions = new ArrayList<>();
+    private final List<List<String>> mMayLaunchUrls = new ArrayList<>();
+    private int mWarmupCount;
+    private boolean mWarmupResult = true;
+    private boolean mMayLaunchResult = true;
+
+    /**
+     * Makes the next warmup calls succeed or fail.
+     */
+    public synchronized void setWarmupResult(boolean result) {
+        mWarmupResult = result;
+    }
+
+    /**
+     * Makes the next mayLaunchUrl calls succeed or fail.
+     */
+    public synchronized void setMayLaunchResult(boolean result) {
+        mMayLaunchResult = result;
+    }
+
+    public synchronized int getWarmupCount() {
+        return mWarmupCount;
+    }
+
+    public synchronized List<CustomTabsSessionToken> getSessions() {
+        return new ArrayList<>(mSessions);
+    }
+
+    /**
+     * @return The urls of every mayLaunchUrl call, most likely first, oldest call first.
+     */
+    public synchronized List<List<String>> getMayLaunchUrls() {
+        return new ArrayList<>(mMayLaunchUrls);
+    }
+
+    /**
+     * Sends a navigation event, such as {@link android.support.customtabs.CustomTabsCallback#NAVIGATION_FINISHED},
+     * to the most recent session.
+     */
+    public void sendNavigationEvent(int navigationEvent) {
+        CustomTabsSessionToken session;
+        synchronized (this) {
+            if (mSessions.isEmpty()) {
+                throw new IllegalStateException("no session");
+            }
+            session = mSessions.get(mSessions.size() - 1);
+        }
+        session.getCallback().onNavigationEvent(navigationEvent, null);
+    }
+
+    /**
+     * Forgets the sessions and the warm state, as a killed browser process would.
+     */
+    synchronized void onProcessDied() {
+        mSessions.clear();
+    }
+
+    @Override
+    protected synchronized boolean warmup(long flags) {
+        mWarmupCount++;
+        return mWarmupResult;
+    }
+
+    @Override
+    protected synchronized boolean newSession(CustomTabsSessionToken sessionToken) {
+        mSessions.add(sessionToken);
+        return true;
+    }
+
+    @Override
+    protected synchronized boolean mayLaunchUrl(CustomTabsSessionToken sessionToken, Uri url, Bundle extras,
+                                                List<Bundle> otherLikelyBundles) {
+        if (!mSessions.contains(sessionToken)) {
+            return false;
+        }
+        List<String> urls = new ArrayList<>();
+        urls.add(url.toString());
+        if (otherLikelyBundles != null) {
+            for (Bundle bundle : otherLikelyBundles) {
+                Uri other = bundle.getParcelable(CustomTabsService.KEY_URL);
+                urls.add(other.toString());
+            }
+        }
+        mMayLaunchUrls.add(Collections.unmodifiableList(urls));
+        return mMayLaunchResult;
+    }
+
+    @Override
+    protected Bundle extraCommand(String commandName, Bundle args) {
+        return null;
+    }
+}
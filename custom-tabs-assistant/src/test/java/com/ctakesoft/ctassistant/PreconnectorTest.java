@@ -0,0 +1,175 @@
+package com.ctakesoft.ctassistant;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs {@link Preconnector} against local keep-alive HTTP servers.
+ */
+public class PreconnectorTest {
+    private final List<TestServer> mServers = new ArrayList<>();
+    private File mDirectory;
+
+    /**
+     * Minimal HTTP/1.1 server that keeps connections alive, and records "METHOD client-port" of
+     * each request.
+     */
+    private static final class TestServer extends Thread {
+        final ServerSocket socket;
+        final List<String> requests = new CopyOnWriteArrayList<>();
+
+        TestServer() throws IOException {
+            socket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+            setDaemon(true);
+            start();
+        }
+
+        String url(String path) {
+            return "http://127.0.0.1:" + socket.getLocalPort() + path;
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    final Socket client = socket.accept();
+                    Thread connection = new Thread() {
+                        @Override
+                        public void run() {
+                            serve(client);
+                        }
+                    };
+                    connection.setDaemon(true);
+                    connection.start();
+                }
+            } catch (IOException e) {
+                // closed.
+            }
+        }
+
+        private void serve(Socket client) {
+            try {
+                BufferedReader in = new BufferedReader(new InputStreamReader(client.getInputStream(), "UTF-8"));
+                OutputStream out = client.getOutputStream();
+                String requestLine;
+                while ((requestLine = in.readLine()) != null) {
+                    String line;
+                    while ((line = in.readLine()) != null && !line.isEmpty()) {
+                        // skip the headers.
+                    }
+                    String method = requestLine.split(" ")[0];
+                    requests.add(method + " " + client.getPort());
+                    byte[] body = "<html></html>".getBytes("UTF-8");
+                    out.write(("HTTP/1.1 200 OK\r\nContent-Type: text/html; charset=UTF-8\r\n"
+                            + "Content-Length: " + body.length + "\r\n\r\n").getBytes("UTF-8"));
+                    if (!"HEAD".equals(method)) {
+                        out.write(body);
+                    }
+                    out.flush();
+                }
+                client.close();
+            } catch (IOException e) {
+                // client went away.
+            }
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        mDirectory = File.createTempFile("PreconnectorTest", "");
+        mDirectory.delete();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        for (TestServer server : mServers) {
+            server.socket.close();
+        }
+        File[] files = mDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        mDirectory.delete();
+    }
+
+    private TestServer startServer() throws IOException {
+        TestServer server = new TestServer();
+        mServers.add(server);
+        return server;
+    }
+
+    @Test
+    public void fetchReusesWarmedConnection() throws Exception {
+        TestServer server = startServer();
+        Preconnector preconnector = new Preconnector();
+        preconnector.preconnect(server.url("/article")).get(5, TimeUnit.SECONDS);
+        assertTrue(preconnector.isRecentlyPreconnected(server.url("/other")));
+
+        new DiskResponseCache(mDirectory, 1024).fetch(server.url("/article"), null, null).body.close();
+        assertEquals(2, server.requests.size());
+        assertTrue(server.requests.get(0).startsWith("HEAD "));
+        assertTrue(server.requests.get(1).startsWith("GET "));
+        // same client port, same connection.
+        assertEquals(server.requests.get(0).split(" ")[1], server.requests.get(1).split(" ")[1]);
+    }
+
+    @Test
+    public void recentlyPreconnectedOriginIsSkipped() throws Exception {
+        TestServer server = startServer();
+        Preconnector preconnector = new Preconnector();
+        preconnector.preconnect(server.url("/a")).get(5, TimeUnit.SECONDS);
+        assertNull(preconnector.preconnect(server.url("/b")));
+        assertEquals(1, server.requests.size());
+    }
+
+    @Test
+    public void recentOriginsAreBounded() throws Exception {
+        Preconnector preconnector = new Preconnector();
+        TestServer first = startServer();
+        preconnector.preconnect(first.url("/")).get(5, TimeUnit.SECONDS);
+        for (int i = 0; i < Preconnector.MAX_RECENT_ORIGINS; i++) {
+            preconnector.preconnect(startServer().url("/")).get(5, TimeUnit.SECONDS);
+        }
+        // the oldest origin was evicted.
+        assertFalse(preconnector.isRecentlyPreconnected(first.url("/")));
+        for (TestServer server : mServers.subList(1, mServers.size())) {
+            assertTrue(preconnector.isRecentlyPreconnected(server.url("/")));
+        }
+    }
+
+    @Test
+    public void failedOriginIsDropped() throws Exception {
+        TestServer server = startServer();
+        server.socket.close();
+
+        Preconnector preconnector = new Preconnector();
+        preconnector.preconnect(server.url("/")).get(5, TimeUnit.SECONDS);
+        assertFalse(preconnector.isRecentlyPreconnected(server.url("/")));
+    }
+
+    @Test
+    public void otherSchemesAreIgnored() {
+        Preconnector preconnector = new Preconnector();
+        assertNull(preconnector.preconnect("about:blank"));
+        assertNull(preconnector.preconnect("file:///sdcard/index.html"));
+        assertNull(preconnector.preconnect("not a url"));
+    }
+}
@@ -0,0 +1,113 @@
+package com.ctakesoft.ctassistant;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the hit/miss/waste accounting and the adaptive budget of {@link PrefetchStats}.
+ */
+public class PrefetchStatsTest {
+    private static final String SHOP = "https://shop.example.com/item";
+    private static final String HELP = "https://help.example.com/faq";
+    private static final Object SOURCE = new Object();
+
+    @Test
+    public void countsHitsMissesAndWaste() throws Exception {
+        PrefetchStats stats = new PrefetchStats();
+
+        stats.onPredicted(SOURCE, Arrays.asList(SHOP, HELP));
+        stats.onLaunched(SOURCE, SHOP);
+        stats.onLaunched(SOURCE, HELP);
+
+        assertEquals(1, stats.getCounters(SHOP).getHits(), 0.05);
+        assertEquals(1, stats.getCounters(HELP).getWaste(), 0.05);
+        assertEquals(1, stats.getCounters(HELP).getMisses(), 0.05);
+    }
+
+    @Test
+    public void sourcesResolveOnlyTheirOwnPredictions() throws Exception {
+        PrefetchStats stats = new PrefetchStats();
+        Object other = new Object();
+
+        stats.onPredicted(SOURCE, Collections.singletonList(SHOP));
+        // another activity's predictions don't replace these.
+        stats.onPredicted(other, Collections.singletonList(HELP));
+        stats.onLaunched(SOURCE, SHOP);
+
+        assertEquals(1, stats.getCounters(SHOP).getHits(), 0.05);
+        assertNull(stats.getCounters(HELP));
+
+        stats.onDiscarded(other);
+        assertEquals(1, stats.getCounters(HELP).getWaste(), 0.05);
+    }
+
+    @Test
+    public void forgetsLeastRecentlyUsedOrigins() throws Exception {
+        PrefetchStats stats = new PrefetchStats();
+
+        stats.onLaunched(SOURCE, SHOP);
+        for (int i = 0; i < PrefetchStats.MAX_ORIGINS; i++) {
+            stats.onLaunched(SOURCE, "https://site" + i + ".example.com/");
+        }
+
+        assertNull(stats.getCounters(SHOP));
+        assertNotNull(stats.getCounters("https://site0.example.com/"));
+    }
+
+    @Test
+    public void replacedPredictionsAreWaste() throws Exception {
+        PrefetchStats stats = new PrefetchStats();
+
+        stats.onPredicted(SOURCE, Collections.singletonList(SHOP));
+        stats.onPredicted(SOURCE, Collections.singletonList(HELP));
+
+        assertEquals(1, stats.getCounters(SHOP).getWaste(), 0.05);
+        assertNull(stats.getCounters(HELP));
+    }
+
+    @Test
+    public void fullBudgetUntilEnoughSamples() throws Exception {
+        PrefetchStats stats = new PrefetchStats();
+
+        assertEquals(5, stats.getBudget(5, false));
+        assertEquals(1, stats.getBudget(5, true));
+    }
+
+    @Test
+    public void stopsSpeculatingWhenNothingHits() throws Exception {
+        PrefetchStats stats = new PrefetchStats();
+        for (int i = 0; i < 30; i++) {
+            stats.onPredicted(SOURCE, Collections.singletonList(SHOP + i));
+            stats.onLaunched(SOURCE, HELP);
+        }
+
+        assertEquals(0, stats.getBudget(5, false));
+        List<String> probe = stats.filter(Arrays.asList(SHOP, HELP), 5, false);
+        assertEquals(1, probe.size());
+        for (int i = 1; i < PrefetchStats.PROBE_INTERVAL; i++) {
+            assertTrue(stats.filter(Arrays.asList(SHOP, HELP), 5, false).isEmpty());
+        }
+    }
+
+    @Test
+    public void dropsOriginsThatNeverHit() throws Exception {
+        PrefetchStats stats = new PrefetchStats();
+        for (int i = 0; i < 30; i++) {
+            stats.onPredicted(SOURCE, Arrays.asList(SHOP, HELP));
+            stats.onLaunched(SOURCE, SHOP);
+        }
+
+        assertEquals(Collections.singletonList(SHOP), stats.filter(Arrays.asList(HELP, SHOP), 5, false));
+    }
+
+    @Test
+    public void originIgnoresPathAndCase() throws Exception {
+        assertEquals("https://shop.example.com", PrefetchStats.origin("HTTPS://Shop.Example.com/a?b=c"));
+        assertEquals("http://localhost:8080", PrefetchStats.origin("http://localhost:8080/"));
+    }
+}
@@ -0,0 +1,59 @@
+package com.ctakesoft.ctassistant;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the ordering, version keys and persistence format of {@link ProviderRanking}.
+ */
+public class ProviderRankingTest {
+    private static final String CHROME = "com.android.chrome";
+    private static final String FIREFOX = "org.mozilla.firefox";
+    private static final String SAMSUNG = "com.sec.android.app.sbrowser";
+
+    @Test
+    public void fastestFirst() throws Exception {
+        Map<String, Long> latencies = new HashMap<>();
+        latencies.put(CHROME, 420L);
+        latencies.put(FIREFOX, 180L);
+        latencies.put(SAMSUNG, 300L);
+
+        assertEquals(Arrays.asList(FIREFOX, SAMSUNG, CHROME), ProviderRanking.rank(latencies));
+    }
+
+    @Test
+    public void keyChangesWithVersions() throws Exception {
+        Map<String, Integer> versions = new HashMap<>();
+        versions.put(FIREFOX, 10);
+        versions.put(CHROME, 20);
+        String key = ProviderRanking.key(versions);
+
+        assertEquals(CHROME + "@20," + FIREFOX + "@10", key);
+        versions.put(CHROME, 21);
+        assertFalse(key.equals(ProviderRanking.key(versions)));
+    }
+
+    @Test
+    public void selectSkipsUninstalledProviders() throws Exception {
+        List<String> ranking = Arrays.asList(FIREFOX, CHROME);
+
+        assertEquals(CHROME, ProviderRanking.select(ranking, Arrays.asList(CHROME, SAMSUNG)));
+        assertNull(ProviderRanking.select(ranking, Collections.singletonList(SAMSUNG)));
+    }
+
+    @Test
+    public void encodeRoundTrips() throws Exception {
+        List<String> ranking = Arrays.asList(SAMSUNG, CHROME);
+
+        assertEquals(ranking, ProviderRanking.decode(ProviderRanking.encode(ranking)));
+        assertTrue(ProviderRanking.decode(null).isEmpty());
+        assertTrue(ProviderRanking.decode("").isEmpty());
+    }
+}
@@ -0,0 +1,42 @@
+package com.ctakesoft.ctassistant;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the backoff delays of {@link ReconnectPolicy}.
+ */
+public class ReconnectPolicyTest {
+
+    @Test
+    public void delaysDoubleUpToTheBound() throws Exception {
+        ReconnectPolicy policy = new ReconnectPolicy(1000, 5000, 5);
+
+        assertEquals(1000, policy.getDelay(0));
+        assertEquals(2000, policy.getDelay(1));
+        assertEquals(4000, policy.getDelay(2));
+        assertEquals(5000, policy.getDelay(3));
+        assertEquals(5000, policy.getDelay(4));
+    }
+
+    @Test
+    public void attemptsRunOut() throws Exception {
+        assertEquals(-1, new ReconnectPolicy(1000, 5000, 2).getDelay(2));
+        assertEquals(-1, ReconnectPolicy.NONE.getDelay(0));
+        assertEquals(16000, ReconnectPolicy.DEFAULT.getDelay(4));
+        assertEquals(-1, ReconnectPolicy.DEFAULT.getDelay(5));
+    }
+
+    @Test
+    public void largeAttemptsDoNotOverflow() throws Exception {
+        ReconnectPolicy policy = new ReconnectPolicy(1, Long.MAX_VALUE / 2, Integer.MAX_VALUE);
+
+        assertTrue(policy.getDelay(200) > 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsInvalidPolicy() throws Exception {
+        new ReconnectPolicy(2000, 1000, 3);
+    }
+}
@@ -0,0 +1,90 @@
+package com.ctakesoft.ctassistant;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the LRU eviction and url matching of {@link SessionPool}.
+ */
+public class SessionPoolTest {
+    private static final String SHOP = "https://shop.example.com";
+    private static final String HELP = "https://help.example.com";
+    private static final String PARTNER = "https://partner.example.org";
+
+    @Test
+    public void evictsLeastRecentlyUsed() throws Exception {
+        SessionPool<String> pool = new SessionPool<>(2);
+        SessionPool.Slot<String> shop = pool.obtain(SHOP);
+        SessionPool.Slot<String> help = pool.obtain(HELP);
+        // touch the shop, so help is the least recently used.
+        assertSame(shop, pool.obtain(SHOP));
+
+        SessionPool.Slot<String> partner = pool.obtain(PARTNER);
+        assertTrue(pool.contains(shop));
+        assertFalse(pool.contains(help));
+        assertTrue(pool.contains(partner));
+    }
+
+    @Test
+    public void zeroCapacityHasNoSlots() throws Exception {
+        SessionPool<String> pool = new SessionPool<>(0);
+
+        assertNull(pool.obtain(SHOP));
+    }
+
+    @Test
+    public void shrinkingEvicts() throws Exception {
+        SessionPool<String> pool = new SessionPool<>(3);
+        SessionPool.Slot<String> shop = pool.obtain(SHOP);
+        SessionPool.Slot<String> help = pool.obtain(HELP);
+
+        pool.setCapacity(1);
+        assertFalse(pool.contains(shop));
+        assertTrue(pool.contains(help));
+    }
+
+    @Test
+    public void findsThePredictingSlotFirst() throws Exception {
+        SessionPool<String> pool = new SessionPool<>(2);
+        SessionPool.Slot<String> shop = pool.obtain(SHOP);
+        SessionPool.Slot<String> campaign = pool.obtain("campaign");
+        campaign.lastPredictions = Collections.singletonList(SHOP + "/sale");
+
+        assertSame(campaign, pool.findForUrl(SHOP + "/sale"));
+        // not predicted anywhere, matched by origin.
+        assertSame(shop, pool.findForUrl(SHOP + "/cart"));
+        assertNull(pool.findForUrl(PARTNER + "/"));
+    }
+
+    @Test
+    public void predictionsAreReplayedToNewSessions() throws Exception {
+        SessionPool<String> pool = new SessionPool<>(2);
+        SessionPool.Slot<String> shop = pool.obtain(SHOP);
+        List<String> predictions = Arrays.asList(SHOP + "/a", SHOP + "/b");
+        shop.session = "session";
+        shop.lastPredictions = predictions;
+
+        pool.clearSessions(true);
+        assertNull(shop.session);
+        assertNull(shop.lastPredictions);
+        assertEquals(predictions, shop.pendingPredictions);
+        assertEquals(1, pool.getSlotsWaitingForSession().size());
+    }
+
+    @Test
+    public void sentPredictionsAreDroppedOnUnbind() throws Exception {
+        SessionPool<String> pool = new SessionPool<>(2);
+        SessionPool.Slot<String> shop = pool.obtain(SHOP);
+        shop.session = "session";
+        shop.lastPredictions = Collections.singletonList(SHOP + "/a");
+
+        pool.clearSessions(false);
+        assertNull(shop.lastPredictions);
+        assertTrue(pool.getSlotsWaitingForSession().isEmpty());
+    }
+}
@@ -0,0 +1,121 @@
+package com.ctakesoft.ctassistant;
+
+import android.content.ComponentName;
+import android.content.Intent;
+import android.content.ServiceConnection;
+import android.os.Handler;
+import android.os.IBinder;
+import android.os.Looper;
+
+import org.robolectric.annotation.Implementation;
+import org.robolectric.annotation.Implements;
+import org.robolectric.shadows.ShadowContextImpl;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Binds services as a device does: the connection can arrive a set delay after the bind, as from
+ * a browser whose process has to start first, and nothing arrives once it is unbound, where
+ * Robolectric would still report a disconnect. The delay is set with
+ * {@link FakeBrowserCatalogue#setBindDelay(long)}; the test must list this shadow in its
+ * {@code @Config}.
+ */
+@Implements(className = "android.app.ContextImpl")
+public class ShadowDelayedBindContextImpl extends ShadowContextImpl {
+    private static final Map<ServiceConnection, DelayedConnection> sDelayed = new HashMap<>();
+    private static long sBindDelayMillis;
+
+    static void setBindDelay(long millis) {
+        sBindDelayMillis = Math.max(0, millis);
+    }
+
+    static void reset() {
+        sBindDelayMillis = 0;
+        for (DelayedConnection delayed : sDelayed.values()) {
+            delayed.cancel();
+        }
+        sDelayed.clear();
+    }
+
+    @Implementation
+    @Override
+    public boolean bindService(Intent intent, ServiceConnection connection, int flags) {
+        DelayedConnection delayed = new DelayedConnection(connection, sBindDelayMillis);
+        sDelayed.put(connection, delayed);
+        return super.bindService(intent, delayed, flags);
+    }
+
+    @Implementation
+    @Override
+    public void unbindService(ServiceConnection connection) {
+        DelayedConnection delayed = sDelayed.remove(connection);
+        if (delayed == null) {
+            super.unbindService(connection);
+            return;
+        }
+        delayed.unbind();
+        super.unbindService(delayed);
+    }
+
+    /**
+     * Holds the connection back for the delay; a disconnect before then is never seen, and
+     * neither is anything after the unbind.
+     */
+    private static final class DelayedConnection implements ServiceConnection {
+        private final Handler mHandler = new Handler(Looper.getMainLooper());
+        private final ServiceConnection mConnection;
+        private final long mDelayMillis;
+        private Runnable mPending;
+        private boolean mConnected;
+        private boolean mUnbound;
+
+        DelayedConnection(ServiceConnection connection, long delayMillis) {
+            mConnection = connection;
+            mDelayMillis = delayMillis;
+        }
+
+        @Override
+        public void onServiceConnected(final ComponentName name, final IBinder service) {
+            if (mUnbound) {
+                return;
+            }
+            if (mDelayMillis == 0) {
+                mConnected = true;
+                mConnection.onServiceConnected(name, service);
+                return;
+            }
+            mPending = new Runnable() {
+                @Override
+                public void run() {
+                    mPending = null;
+                    mConnected = true;
+                    mConnection.onServiceConnected(name, service);
+                }
+            };
+            mHandler.postDelayed(mPending, mDelayMillis);
+        }
+
+        @Override
+        public void onServiceDisconnected(ComponentName name) {
+            cancel();
+            if (mConnected) {
+                mConnected = false;
+                mConnection.onServiceDisconnected(name);
+            }
+        }
+
+        void unbind() {
+            cancel();
+            mUnbound = true;
+            mConnected = false;
+        }
+
+        void cancel() {
+            if (mPending != null) {
+                mHandler.removeCallbacks(mPending);
+                mPending = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package org.chromium.customtabsclient.shared;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Multi-threaded checks for {@link SingleFlight}.
+ */
+public class SingleFlightTest {
+    private static final int THREADS = 16;
+
+    @Test
+    public void concurrentCallersShareOneLoad() throws Exception {
+        final SingleFlight<String> flight = new SingleFlight<>();
+        final AtomicInteger loads = new AtomicInteger();
+        final CountDownLatch start = new CountDownLatch(1);
+        final Callable<String> loader = new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                loads.incrementAndGet();
+                Thread.sleep(100); // a slow PackageManager scan
+                return "com.android.chrome";
+            }
+        };
+
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        List<Future<String>> results = new ArrayList<>();
+        for (int i = 0; i < THREADS; i++) {
+            results.add(executor.submit(new Callable<String>() {
+                @Override
+                public String call() throws Exception {
+                    start.await();
+                    return flight.get(loader);
+                }
+            }));
+        }
+        start.countDown();
+        for (Future<String> result : results) {
+            assertEquals("com.android.chrome", result.get(5, TimeUnit.SECONDS));
+        }
+        executor.shutdown();
+
+        assertEquals(1, loads.get());
+        assertTrue(flight.isDone());
+        assertEquals("com.android.chrome", flight.get(loader));
+        assertEquals(1, loads.get());
+    }
+
+    @Test
+    public void fastLoadIsNotRepeatedByLateCallers() throws Exception {
+        // no sleep in the loader: late callers miss the fast path right as the winner publishes.
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            for (int round = 0; round < 50000; round++) {
+                final SingleFlight<String> flight = new SingleFlight<>();
+                final CountingLoader loader = new CountingLoader("com.android.chrome");
+                final CountDownLatch start = new CountDownLatch(1);
+                List<Future<String>> results = new ArrayList<>();
+                for (int i = 0; i < 8; i++) {
+                    results.add(executor.submit(new Callable<String>() {
+                        @Override
+                        public String call() throws Exception {
+                            start.await();
+                            return flight.get(loader);
+                        }
+                    }));
+                }
+                start.countDown();
+                for (Future<String> result : results) {
+                    assertEquals("com.android.chrome", result.get(5, TimeUnit.SECONDS));
+                }
+                assertEquals("round " + round, 1, loader.loads.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void nullIsAValidResult() throws Exception {
+        SingleFlight<String> flight = new SingleFlight<>();
+        CountingLoader loader = new CountingLoader(null);
+
+        assertNull(flight.get(loader));
+        assertNull(flight.get(loader));
+        assertEquals(1, loader.loads.get());
+    }
+
+    @Test
+    public void invalidateForcesANewLoad() throws Exception {
+        SingleFlight<String> flight = new SingleFlight<>();
+        CountingLoader loader = new CountingLoader("com.android.chrome");
+
+        flight.get(loader);
+        flight.invalidate();
+        assertFalse(flight.isDone());
+        flight.get(loader);
+        assertEquals(2, loader.loads.get());
+    }
+
+    @Test
+    public void loadInFlightDuringInvalidateIsNotPublished() throws Exception {
+        final SingleFlight<String> flight = new SingleFlight<>();
+        final CountDownLatch loading = new CountDownLatch(1);
+        final CountDownLatch invalidated = new CountDownLatch(1);
+
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                flight.get(new Callable<String>() {
+                    @Override
+                    public String call() throws Exception {
+                        loading.countDown();
+                        invalidated.await();
+                        return "com.chrome.beta";
+                    }
+                });
+            }
+        });
+        thread.start();
+        loading.await();
+        flight.invalidate();
+        invalidated.countDown();
+        thread.join();
+
+        assertFalse(flight.isDone());
+        assertEquals("com.android.chrome", flight.get(new CountingLoader("com.android.chrome")));
+    }
+
+    private static class CountingLoader implements Callable<String> {
+        final AtomicInteger loads = new AtomicInteger();
+        final String mValue;
+
+        CountingLoader(String value) {
+            mValue = value;
+        }
+
+        @Override
+        public String call() throws Exception {
+            loads.incrementAndGet();
+            return mValue;
+        }
+    }
+}